@@ -0,0 +1,111 @@
+#!/bin/bash
+
+# Run the HEFT-like and FCFS-like sweeps as one queue of runs shared by
+# many worker processes (see SweepQueue and SweepCoordinator). The queue
+# lives in distributed-output/queue, so workers on other machines can join
+# in if this dir is on a shared filesystem.
+#
+# Usage:
+#
+#     ./distributed-run.sh [n_workers]
+#
+# compiles everything, starts the coordinator and n_workers local workers
+# for each algorithm (default: one per core) and waits for the sweep to
+# finish. Failed runs are retried by the coordinator. Results are streamed
+# to distributed-output/results, and can be collected with Aggregate as
+# usual.
+#
+#     ./distributed-run.sh --workers-only [n_workers]
+#
+# only starts workers, e.g. on another batch node.
+#
+# Deadlines and budgets can be swept over in the same way as for
+# first-run.sh, by setting CONSTRAINT_ARGS.
+#
+# If the sweep was killed part way through, carry on with
+#
+#     RESUME=1 ./distributed-run.sh [n_workers]
+#
+# after making sure that no workers are still running. The runs claimed by
+# the dead workers go back in the queue, and runs which already finished
+# are not run again. Workers started with --workers-only on other nodes
+# need RESUME=1 too.
+
+set -o errexit
+set -o nounset
+
+main="$(dirname $(readlink -f $0))"
+project_root="${main}/../.."
+fcfs_dir="${main}/../2015-1-12-fcfs-power-capped"
+out_dir_root="${main}/distributed-output"
+queue_dir="${out_dir_root}/queue"
+
+start_workers()
+{
+    n_workers="$1"
+
+    for i in $(seq $n_workers); do
+        java -cp "${project_root}/lib/*:${main}/bin" MySimulation \
+             --vmFile "${main}/input/default.vm.yaml" \
+             --queueDir "$queue_dir" \
+             --runLog "${out_dir_root}/runs.log" \
+             ${RESUME:+--resume} \
+             > "${out_dir_root}/worker-heft-$(hostname)-$i.log" 2>&1 &
+
+        java -cp "${project_root}/lib/*:${fcfs_dir}/bin" FCFSPowerCapped \
+             --vmFile "${fcfs_dir}/input/default.vm.yaml" \
+             --queueDir "$queue_dir" \
+             --runLog "${out_dir_root}/runs.log" \
+             ${RESUME:+--resume} \
+             > "${out_dir_root}/worker-fcfs-$(hostname)-$i.log" 2>&1 &
+    done
+}
+
+if [ "${1:-}" = "--workers-only" ]; then
+    start_workers "${2:-$(nproc)}"
+    wait
+    exit 0
+fi
+
+n_workers="${1:-$(nproc)}"
+
+# Clean
+mkdir -p "$out_dir_root" "${main}/bin" "${fcfs_dir}/bin"
+if [ -z "${RESUME:-}" ]; then
+    rm -rf "${out_dir_root:?}"/*
+fi
+rm -rf "${main}"/bin/* "${fcfs_dir}"/bin/*
+
+# (re)compile cws
+cd "${project_root}/cloudworkflowsimulator/"
+ant clean dist
+cd "$main"
+
+# compile both experiments, the fcfs one shares the sweep code with the
+# main one
+javac -cp "${project_root}/lib/*" -d "${main}/bin" "${main}"/src/*.java
+javac -cp "${project_root}/lib/*" -d "${fcfs_dir}/bin" "${fcfs_dir}"/src/*.java \
+      "${main}/src/SweepRunner.java" \
+      "${main}/src/SweepQueue.java" "${main}/src/PowerAnalytics.java"
+
+coordinator()
+{
+    java -cp "${project_root}/lib/*:${main}/bin" SweepCoordinator \
+         --queueDir "$queue_dir" \
+         --dagDir "${main}/input/dags" \
+         --outputDirRoot "$out_dir_root" \
+         ${CONSTRAINT_ARGS:-} \
+         "$@"
+}
+
+# Put runs claimed by dead workers back in the queue, before any new
+# workers can claim anything
+if [ -n "${RESUME:-}" ]; then
+    coordinator --recover
+fi
+
+start_workers "$n_workers"
+
+coordinator ${RESUME:+--resume}
+
+wait
@@ -5,6 +5,7 @@ import argparse
 import os
 import os.path
 import itertools as it
+import csv
 
 from os.path import join as pjoin
 from ast import literal_eval
@@ -20,13 +21,17 @@ def group_by(iterator, key):
 def main():
     """Plot scatter of slr vs number of nodes in dag
 
-    Run as `find -name slr_plot_data | xargs ./plot-slrs.py`.
+    Run as `find -name slr_plot_data | xargs ./plot-slrs.py`, or on the
+    slr_table written by the Aggregate java program as
+    `./plot-slrs.py --table slr_table`.
 
     """
 
     parser = argparse.ArgumentParser(description=main.__doc__,
                                      formatter_class=argparse.RawDescriptionHelpFormatter)
     parser.add_argument('data_files', nargs="*")
+    parser.add_argument('--table', action='append', default=[],
+                        help="slr_table file written by Aggregate, may be repeated")
     parser.add_argument('--save-as')
     args = parser.parse_args()
 
@@ -42,6 +47,14 @@ def main():
 
         data.append(data_dict)
 
+    for fname in args.table:
+        data.extend(parse_table(fname))
+
+    # Runs with a deadline or budget are summarised by the Aggregate java
+    # program instead
+    data = [d for d in data
+            if d.get('deadlineFactor') in (None, '')
+            and d.get('budgetFactor') in (None, '')]
 
     data = sorted(data,
                   key=lambda d: (d['application'], d['powerDipFraction'], d['algorithmName'], d['size']))
@@ -105,5 +118,21 @@ def main():
     return 0
 
 
+def parse_table(filename):
+    """Read the rows of a tab separated table with a header line as dicts,
+    values are converted in the same way as in slr_plot_data files.
+    """
+
+    def convert(value):
+        try:
+            return literal_eval(value)
+        except (SyntaxError, ValueError):
+            return value
+
+    with open(filename, 'r') as f:
+        return [dict((k, convert(v)) for k, v in row.items())
+                for row in csv.DictReader(f, delimiter='\t')]
+
+
 if __name__ == "__main__":
     sys.exit(main())
@@ -0,0 +1,35 @@
+#!/bin/bash
+
+# Plot the schedule (gantt chart) and power usage of individual runs. Only
+# runs which are actually needed should be plotted, the sweep-wide data
+# comes from the Aggregate java program instead.
+#
+# Usage: ./render-runs.sh run_dir [run_dir ...]
+#
+# where each run_dir contains an out.log (already parsed by the sweep)
+# and a power.log, e.g.
+#
+#     find output -path '*CYBERSHAKE.n.1000.*/0.2' | xargs ./render-runs.sh
+
+set -o errexit
+set -o nounset
+
+main="$(dirname $(readlink -f $0))"
+project_root="${main}/../.."
+script_dir="$(readlink -f ${project_root}/cloudworkflowsimulator/scripts)"
+
+for out_dir in "$@"; do
+    out_dir="$(readlink -f ${out_dir})"
+
+    outfile="${out_dir}/out.log"
+    powerfile="${out_dir}/power.log"
+
+    echo "Plotting $out_dir"
+
+    # plot gantt charts
+    ruby -C "$script_dir/visualisation/" plot_gantt.rb \
+         results ${outfile}.parsed ${outfile}.results --crop-from 0.0
+
+    # plot power usage
+    "${main}/plot-power.py" ${powerfile} ${powerfile}.png
+done
@@ -0,0 +1,18 @@
+#!/bin/bash
+
+set -o errexit
+set -o nounset
+
+# Run the unit tests for the experiment code. Needs cloudworkflowsimulator
+# to have been built already (e.g. by first-run.sh).
+
+project_root="../.."
+
+mkdir -p test-bin
+touch test-bin/temp
+rm -r test-bin/*
+
+javac -cp "${project_root}/lib/*" -d test-bin/ src/*.java test/*.java
+
+tests=$(cd test && ls *Test.java | sed 's/\.java$//')
+java -cp "${project_root}/lib/*:./test-bin" org.junit.runner.JUnitCore $tests
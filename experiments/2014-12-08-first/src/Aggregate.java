@@ -0,0 +1,510 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.UnsupportedEncodingException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import com.lexicalscope.jewel.cli.Option;
+import com.lexicalscope.jewel.cli.Unparsed;
+import com.lexicalscope.jewel.cli.ArgumentValidationException;
+import com.lexicalscope.jewel.cli.CliFactory;
+import com.lexicalscope.jewel.cli.HelpRequestedException;
+
+
+/**
+ * Collect the results of a whole sweep in one pass: reads every
+ * slr_plot_data and power.log under the given output dirs and writes
+ *
+ * - slr_table: one row per run with every field from slr_plot_data,
+ *
+ * - slr_summary: mean makespans for each (application, powerDipFraction,
+ *   algorithmName, size), i.e. the data plotted by plot-slrs.py,
+ *
+ * - power_series: the power cap and power used step functions of every
+ *   run, one row per step,
+ *
+ * - constraint_summary: for runs with a deadline and/or budget, how often
+ *   each algorithm met the deadline, the budget, the power cap and all
+ *   three, and the mean throughput.
+ *
+ * - power_summary: for runs with power analytics, mean time and energy
+ *   over the cap, cap utilisation, unused energy and headroom histograms
+ *   in and outside the dip, grouped as for the constraint summary.
+ *
+ * All are tab separated with a header line. Nothing is plotted here, use
+ * render-runs.sh to plot individual runs when they are needed.
+ */
+public final class Aggregate {
+
+    /** Keys from slr_plot_data used to group runs in the summary. */
+    private static final List<String> SUMMARY_KEYS =
+            Collections.unmodifiableList(Arrays.asList(
+                    "application", "powerDipFraction", "algorithmName", "size",
+                    "deadlineFactor", "budgetFactor"));
+
+    /** Keys used to group runs in the constraint summary. */
+    private static final List<String> CONSTRAINT_SUMMARY_KEYS =
+            Collections.unmodifiableList(Arrays.asList(
+                    "algorithmName", "powerDipFraction", "deadlineFactor",
+                    "budgetFactor"));
+
+    /** Results of a single run. */
+    public static class Run {
+        /** Directory containing the run's output. */
+        String dir;
+
+        /** Contents of slr_plot_data in file order. */
+        Map<String, String> fields = new LinkedHashMap<String, String>();
+    }
+
+    // Non-instantiable
+    private Aggregate() {
+        throw new AssertionError();
+    }
+
+    public static interface Args {
+        @Option String getOutputDir();
+
+        @Unparsed List<String> getResultDirs();
+
+        @Option(helpRequest = true) boolean getHelp();
+    }
+
+    public static void main(String[] commandLine)
+            throws ArgumentValidationException {
+
+        // Read arguments
+        Args args = null;
+        try {
+            args = CliFactory.parseArguments(Args.class, commandLine);
+        } catch (HelpRequestedException e) {
+            System.out.println(e);
+            System.exit(0);
+        }
+
+        final File outputDir = new File(args.getOutputDir());
+        outputDir.mkdirs();
+
+        // Find every run
+        final List<File> runDirs = new ArrayList<File>();
+        for (String resultDir : args.getResultDirs()) {
+            findRunDirs(new File(resultDir), runDirs);
+        }
+        Collections.sort(runDirs);
+
+        PrintWriter table = openTable(new File(outputDir, "slr_table"));
+        PrintWriter powerSeries = openTable(new File(outputDir, "power_series"));
+        try {
+            powerSeries.println("dir\tlabel\ttime\tvalue");
+
+            // Single pass over the runs: the power logs are streamed
+            // straight out, only the small slr data is kept for the
+            // summary.
+            final List<Run> runs = new ArrayList<Run>();
+            for (File runDir : runDirs) {
+                final Run run = readRun(runDir);
+                runs.add(run);
+
+                final File powerLog = new File(runDir, "power.log");
+                if (powerLog.exists()) {
+                    writePowerSeries(run.dir, powerLog, powerSeries);
+                }
+            }
+
+            writeRunTable(runs, table);
+            writeSummary(runs, new File(outputDir, "slr_summary"));
+            writeConstraintSummary(runs, new File(outputDir, "constraint_summary"));
+            writePowerSummary(runs, new File(outputDir, "power_summary"));
+        } finally {
+            table.close();
+            powerSeries.close();
+        }
+
+        System.out.printf("Aggregated %d runs into %s\n", runDirs.size(), outputDir);
+    }
+
+    /** Recursively find all dirs containing an slr_plot_data file. */
+    private static void findRunDirs(File dir, List<File> runDirs) {
+        if (new File(dir, "slr_plot_data").isFile()) {
+            runDirs.add(dir);
+        }
+
+        final File[] children = dir.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            if (child.isDirectory()) {
+                findRunDirs(child, runDirs);
+            }
+        }
+    }
+
+    /** Parse the slr_plot_data file of a run. Each line is a python
+     * literal key followed by a python literal value, see
+     * SweepRunner.writeSLRPlotData.
+     */
+    static Run readRun(File runDir) {
+        final Run run = new Run();
+        run.dir = runDir.getPath();
+
+        for (String line : readLines(new File(runDir, "slr_plot_data"))) {
+            line = line.trim();
+            if (line.isEmpty()) {
+                continue;
+            }
+
+            final int split = line.indexOf(' ');
+            if (split < 0) {
+                throw new RuntimeException("Malformed line in " + runDir + ": " + line);
+            }
+            run.fields.put(unquote(line.substring(0, split)),
+                    unquote(line.substring(split + 1).trim()));
+        }
+
+        return run;
+    }
+
+    private static String unquote(String s) {
+        if (s.length() >= 2 && s.startsWith("'") && s.endsWith("'")) {
+            return s.substring(1, s.length() - 1);
+        }
+        return s;
+    }
+
+    /** Write one row per run, the columns are the union of all keys seen
+     * (so runs from older versions of the simulations just have empty
+     * cells for newer fields).
+     */
+    private static void writeRunTable(List<Run> runs, PrintWriter table) {
+        final Set<String> keys = new LinkedHashSet<String>();
+        for (Run run : runs) {
+            keys.addAll(run.fields.keySet());
+        }
+
+        table.print("dir");
+        for (String key : keys) {
+            table.print("\t" + key);
+        }
+        table.println();
+
+        for (Run run : runs) {
+            table.print(run.dir);
+            for (String key : keys) {
+                final String value = run.fields.get(key);
+                table.print("\t" + (value == null ? "" : value));
+            }
+            table.println();
+        }
+    }
+
+    /** Write mean makespans for each group of runs, sorted in the same
+     * way as plot-slrs.py.
+     */
+    private static void writeSummary(List<Run> runs, File file) {
+        final Map<List<String>, List<Run>> groups = groupRuns(runs, SUMMARY_KEYS);
+
+        PrintWriter writer = openTable(file);
+        try {
+            for (String k : SUMMARY_KEYS) {
+                writer.print(k + "\t");
+            }
+            writer.println("runs\tmeanMakespan\tmeanOptimalMakespan\tmeanMakespanRatio");
+
+            for (Map.Entry<List<String>, List<Run>> group : groups.entrySet()) {
+                double makespan = 0.0, optimalMakespan = 0.0, ratio = 0.0;
+                for (Run run : group.getValue()) {
+                    final double m = Double.parseDouble(run.fields.get("makespan"));
+                    final double om = Double.parseDouble(run.fields.get("optimalMakespan"));
+                    makespan += m;
+                    optimalMakespan += om;
+                    ratio += m / om;
+                }
+                final int n = group.getValue().size();
+
+                for (String value : group.getKey()) {
+                    writer.print(value + "\t");
+                }
+                writer.printf(Locale.ROOT, "%d\t%f\t%f\t%f\n", n, makespan / n,
+                        optimalMakespan / n, ratio / n);
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    /** Write the fraction of runs which met each constraint for each
+     * group of runs with a deadline and/or budget.
+     */
+    private static void writeConstraintSummary(List<Run> runs, File file) {
+        // Unconstrained runs, and runs from before deadlines and budgets
+        // were recorded, aren't included.
+        final List<Run> constrainedRuns = new ArrayList<Run>();
+        for (Run run : runs) {
+            if (hasFactor(run, "deadlineFactor") || hasFactor(run, "budgetFactor")) {
+                constrainedRuns.add(run);
+            }
+        }
+
+        final Map<List<String>, List<Run>> groups =
+                groupRuns(constrainedRuns, CONSTRAINT_SUMMARY_KEYS);
+
+        PrintWriter writer = openTable(file);
+        try {
+            for (String k : CONSTRAINT_SUMMARY_KEYS) {
+                writer.print(k + "\t");
+            }
+            writer.println("runs\tmetDeadline\tmetBudget\tmetPowerCap\tmetAll\tmeanCost\tmeanThroughput");
+
+            for (Map.Entry<List<String>, List<Run>> group : groups.entrySet()) {
+                int metDeadline = 0, metBudget = 0, metPowerCap = 0, metAll = 0;
+                double cost = 0.0, throughput = 0.0;
+                for (Run run : group.getValue()) {
+                    final boolean d = isTrue(run, "metDeadline");
+                    final boolean b = isTrue(run, "metBudget");
+                    final boolean p = isTrue(run, "metPowerCap");
+                    metDeadline += d ? 1 : 0;
+                    metBudget += b ? 1 : 0;
+                    metPowerCap += p ? 1 : 0;
+                    metAll += (d && b && p) ? 1 : 0;
+                    cost += Double.parseDouble(run.fields.get("cost"));
+                    throughput += Double.parseDouble(run.fields.get("throughput"));
+                }
+                final int n = group.getValue().size();
+
+                for (String value : group.getKey()) {
+                    writer.print(value + "\t");
+                }
+                writer.printf(Locale.ROOT, "%d\t%f\t%f\t%f\t%f\t%f\t%f\n", n,
+                        (double) metDeadline / n, (double) metBudget / n,
+                        (double) metPowerCap / n, (double) metAll / n,
+                        cost / n, throughput / n);
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    /** Write the mean power analytics (see PowerAnalytics) for each
+     * group of runs.
+     */
+    private static void writePowerSummary(List<Run> runs, File file) {
+        final List<Run> analysedRuns = new ArrayList<Run>();
+        for (Run run : runs) {
+            if (run.fields.containsKey("capUtilisation")) {
+                analysedRuns.add(run);
+            }
+        }
+
+        final Map<List<String>, List<Run>> groups =
+                groupRuns(analysedRuns, CONSTRAINT_SUMMARY_KEYS);
+
+        PrintWriter writer = openTable(file);
+        try {
+            for (String k : CONSTRAINT_SUMMARY_KEYS) {
+                writer.print(k + "\t");
+            }
+            writer.println("runs\tmeanTimeOverCap\tmeanEnergyOverCap\tmeanCapUtilisation"
+                    + "\tmeanUnusedEnergyInDip\tmeanUnusedEnergyOutsideDip"
+                    + "\tmeanHeadroomHistogramInDip\tmeanHeadroomHistogramOutsideDip");
+
+            for (Map.Entry<List<String>, List<Run>> group : groups.entrySet()) {
+                double timeOver = 0.0, energyOver = 0.0, utilisation = 0.0,
+                        unusedInDip = 0.0, unusedOutsideDip = 0.0;
+                final double[] inDip = new double[PowerAnalytics.N_BINS];
+                final double[] outsideDip = new double[PowerAnalytics.N_BINS];
+                for (Run run : group.getValue()) {
+                    timeOver += Double.parseDouble(run.fields.get("timeOverCap"));
+                    energyOver += Double.parseDouble(run.fields.get("energyOverCap"));
+                    utilisation += Double.parseDouble(run.fields.get("capUtilisation"));
+                    unusedInDip += Double.parseDouble(run.fields.get("unusedEnergyInDip"));
+                    unusedOutsideDip += Double.parseDouble(run.fields.get("unusedEnergyOutsideDip"));
+                    addHistogram(inDip, run.fields.get("headroomHistogramInDip"));
+                    addHistogram(outsideDip, run.fields.get("headroomHistogramOutsideDip"));
+                }
+                final int n = group.getValue().size();
+                for (int i = 0; i < PowerAnalytics.N_BINS; i++) {
+                    inDip[i] /= n;
+                    outsideDip[i] /= n;
+                }
+
+                for (String value : group.getKey()) {
+                    writer.print(value + "\t");
+                }
+                writer.printf(Locale.ROOT, "%d\t%f\t%f\t%f\t%f\t%f\t%s\t%s\n", n,
+                        timeOver / n, energyOver / n, utilisation / n,
+                        unusedInDip / n, unusedOutsideDip / n,
+                        PowerAnalytics.pythonFormatHistogram(inDip),
+                        PowerAnalytics.pythonFormatHistogram(outsideDip));
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    /** Add a histogram written by PowerAnalytics.pythonFormatHistogram
+     * to the totals.
+     */
+    private static void addHistogram(double[] totals, String histogram) {
+        final String[] bins = histogram.substring(1, histogram.length() - 1).split(",");
+        if (bins.length != totals.length) {
+            throw new RuntimeException("Wrong number of bins in histogram: " + histogram);
+        }
+        for (int i = 0; i < totals.length; i++) {
+            totals[i] += Double.parseDouble(bins[i]);
+        }
+    }
+
+    private static boolean hasFactor(Run run, String key) {
+        final String value = run.fields.get(key);
+        return value != null && !value.equals("None");
+    }
+
+    private static boolean isTrue(Run run, String key) {
+        return "True".equals(run.fields.get(key));
+    }
+
+    /** Group runs by the values of the given keys, sorted by key. */
+    private static Map<List<String>, List<Run>> groupRuns(List<Run> runs,
+            List<String> keys) {
+        final Map<List<String>, List<Run>> groups =
+                new TreeMap<List<String>, List<Run>>(new GroupKeyComparator());
+        for (Run run : runs) {
+            final List<String> key = new ArrayList<String>();
+            for (String k : keys) {
+                // Missing values are from older runs, which had no
+                // deadline or budget.
+                final String value = run.fields.get(k);
+                key.add(value == null ? "None" : value);
+            }
+
+            if (!groups.containsKey(key)) {
+                groups.put(key, new ArrayList<Run>());
+            }
+            groups.get(key).add(run);
+        }
+        return groups;
+    }
+
+    /** Compare group keys element by element, numbers are compared as
+     * numbers and everything else as strings.
+     */
+    private static class GroupKeyComparator implements Comparator<List<String>> {
+        @Override
+        public int compare(List<String> a, List<String> b) {
+            for (int i = 0; i < a.size(); i++) {
+                final int c = compareValues(a.get(i), b.get(i));
+                if (c != 0) {
+                    return c;
+                }
+            }
+            return 0;
+        }
+
+        private static int compareValues(String a, String b) {
+            try {
+                return Double.compare(Double.parseDouble(a), Double.parseDouble(b));
+            } catch (NumberFormatException e) {
+                return a.compareTo(b);
+            }
+        }
+    }
+
+    /** Convert a power log (lines of "('label', initial_value,
+     * {time:value, ...})", see SweepRunner.pythonFormatPFunc) into
+     * rows of the power series table. As in plot-power.py the initial
+     * value is treated as a jump at time zero.
+     */
+    static void writePowerSeries(String dir, File powerLog, PrintWriter out) {
+        for (String line : readLines(powerLog)) {
+            line = line.trim();
+            if (line.isEmpty()) {
+                continue;
+            }
+
+            final int labelStart = line.indexOf('\'');
+            final int labelEnd = line.indexOf('\'', labelStart + 1);
+            final int mapStart = line.indexOf('{', labelEnd);
+            final int mapEnd = line.lastIndexOf('}');
+            if (labelStart < 0 || labelEnd < 0 || mapStart < 0 || mapEnd < mapStart) {
+                throw new RuntimeException("Malformed line in " + powerLog + ": " + line);
+            }
+
+            final String label = line.substring(labelStart + 1, labelEnd);
+
+            // Between the label and the map is ", initial_value,"
+            final String initial = line.substring(labelEnd + 1, mapStart)
+                    .replace(",", "").trim();
+
+            final TreeMap<Double, String> jumps = new TreeMap<Double, String>();
+            jumps.put(0.0, initial);
+            for (String pair : line.substring(mapStart + 1, mapEnd).split(",")) {
+                pair = pair.trim();
+                if (pair.isEmpty()) {
+                    continue;
+                }
+                final int colon = pair.indexOf(':');
+                jumps.put(Double.valueOf(pair.substring(0, colon).trim()),
+                        pair.substring(colon + 1).trim());
+            }
+
+            for (Map.Entry<Double, String> jump : jumps.entrySet()) {
+                out.printf(Locale.ROOT, "%s\t%s\t%s\t%s\n", dir, label, jump.getKey(), jump.getValue());
+            }
+        }
+    }
+
+    static List<String> readLines(File file) {
+        final List<String> lines = new ArrayList<String>();
+
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(
+                    new FileInputStream(file), "UTF-8"));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        }
+
+        return lines;
+    }
+
+    private static PrintWriter openTable(File file) {
+        try {
+            return new PrintWriter(new OutputStreamWriter(
+                    new FileOutputStream(file), "UTF-8"));
+        } catch (FileNotFoundException e) {
+            throw new RuntimeException(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
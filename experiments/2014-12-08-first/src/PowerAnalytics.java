@@ -0,0 +1,163 @@
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import cws.core.core.PiecewiseConstantFunction;
+
+
+/**
+ * How well a run used the power it was given: how far it went over the
+ * cap, what fraction of the available energy it used, and how much
+ * headroom (cap minus power used) was left unused during the dip in the
+ * cap versus outside it.
+ *
+ * The dip is wherever the cap is below its maximum value.
+ */
+public final class PowerAnalytics {
+
+    /** Number of bins in the headroom histograms. */
+    public static final int N_BINS = 10;
+
+    /** Seconds, and joules, spent over the cap. */
+    double timeOverCap;
+    double energyOverCap;
+
+    double usedEnergy;
+    double capEnergy;
+
+    /** Energy available under the cap which was not used. */
+    double unusedEnergyInDip;
+    double unusedEnergyOutsideDip;
+
+    /** Fraction of the time in (or outside) the dip spent with headroom
+     * in each bin. Bin i is for headroom between i/N_BINS and
+     * (i+1)/N_BINS of the cap, the last bin includes a headroom of the
+     * whole cap. Time over the cap goes in the first bin.
+     */
+    double[] headroomHistogramInDip = new double[N_BINS];
+    double[] headroomHistogramOutsideDip = new double[N_BINS];
+
+    public double capUtilisation() {
+        return usedEnergy / capEnergy;
+    }
+
+    /** Compute the analytics from time zero until the end of the run. */
+    public static PowerAnalytics compute(PiecewiseConstantFunction powerCap,
+            PiecewiseConstantFunction powerGap, double end) {
+
+        final PowerAnalytics a = new PowerAnalytics();
+
+        a.capEnergy = powerCap.integral(0.0, end);
+        a.usedEnergy = a.capEnergy - powerGap.integral(0.0, end);
+
+        double maxCap = powerCap.getInitialValue();
+        for (double c : powerCap.jumpValues()) {
+            maxCap = Math.max(maxCap, c);
+        }
+
+        double timeInDip = 0.0, timeOutsideDip = 0.0;
+        for (Interval i : intervals(powerCap, powerGap, end)) {
+            if (i.gap < 0.0) {
+                a.timeOverCap += i.length;
+                a.energyOverCap += -i.gap * i.length;
+            }
+
+            final double headroom = i.cap > 0.0 ? Math.max(i.gap, 0.0) / i.cap : 0.0;
+            final int bin = Math.min((int) (headroom * N_BINS), N_BINS - 1);
+
+            if (i.cap < maxCap) {
+                timeInDip += i.length;
+                a.unusedEnergyInDip += Math.max(i.gap, 0.0) * i.length;
+                a.headroomHistogramInDip[bin] += i.length;
+            } else {
+                timeOutsideDip += i.length;
+                a.unusedEnergyOutsideDip += Math.max(i.gap, 0.0) * i.length;
+                a.headroomHistogramOutsideDip[bin] += i.length;
+            }
+        }
+
+        // Convert to fractions of the time
+        for (int i = 0; i < N_BINS; i++) {
+            if (timeInDip > 0.0) {
+                a.headroomHistogramInDip[i] /= timeInDip;
+            }
+            if (timeOutsideDip > 0.0) {
+                a.headroomHistogramOutsideDip[i] /= timeOutsideDip;
+            }
+        }
+
+        return a;
+    }
+
+    /** A stretch of time over which neither the cap nor the gap changes. */
+    private static final class Interval {
+        double length;
+        double cap;
+        double gap;
+    }
+
+    /** Split the time from zero to end into intervals over which neither
+     * function changes, by walking along both functions' jumps together.
+     */
+    private static List<Interval> intervals(PiecewiseConstantFunction cap,
+            PiecewiseConstantFunction gap, double end) {
+
+        final Iterator<Map.Entry<Double, Double>> capJumps = cap.jumps().iterator();
+        final Iterator<Map.Entry<Double, Double>> gapJumps = gap.jumps().iterator();
+        Map.Entry<Double, Double> nextCapJump = next(capJumps);
+        Map.Entry<Double, Double> nextGapJump = next(gapJumps);
+        double c = cap.getInitialValue();
+        double g = gap.getInitialValue();
+
+        final List<Interval> intervals = new ArrayList<Interval>();
+        double t = 0.0;
+        while (t < end) {
+            // Catch up with the jumps up to now
+            while (nextCapJump != null && nextCapJump.getKey() <= t) {
+                c = nextCapJump.getValue();
+                nextCapJump = next(capJumps);
+            }
+            while (nextGapJump != null && nextGapJump.getKey() <= t) {
+                g = nextGapJump.getValue();
+                nextGapJump = next(gapJumps);
+            }
+
+            double next = end;
+            if (nextCapJump != null) {
+                next = Math.min(next, nextCapJump.getKey());
+            }
+            if (nextGapJump != null) {
+                next = Math.min(next, nextGapJump.getKey());
+            }
+
+            Interval interval = new Interval();
+            interval.length = next - t;
+            interval.cap = c;
+            interval.gap = g;
+            intervals.add(interval);
+
+            t = next;
+        }
+
+        return intervals;
+    }
+
+    private static Map.Entry<Double, Double> next(
+            Iterator<Map.Entry<Double, Double>> jumps) {
+        return jumps.hasNext() ? jumps.next() : null;
+    }
+
+    /** Format a histogram as a python list, without spaces so that it
+     * fits in one field of slr_plot_data. Always with decimal points,
+     * since the bins are separated by commas.
+     */
+    static String pythonFormatHistogram(double[] histogram) {
+        StringBuilder s = new StringBuilder("[");
+        for (int i = 0; i < histogram.length; i++) {
+            s.append(i == 0 ? "" : ",").append(String.format(Locale.ROOT, "%f", histogram[i]));
+        }
+        return s.append("]").toString();
+    }
+}
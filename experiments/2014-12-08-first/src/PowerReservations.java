@@ -0,0 +1,88 @@
+import java.util.Map;
+
+import cws.core.core.PiecewiseConstantFunction;
+
+
+/**
+ * Power committed to admitted workflows over time, checked against a power
+ * cap. Each workflow reserves a fixed power for the length of its run, so
+ * as long as the reserved power covers the workflow's peak usage the total
+ * can never go over the cap.
+ *
+ * A workflow is admitted when the cap minus the committed power is at
+ * least its power for the whole of its run. The last value of the cap
+ * holds forever.
+ */
+public final class PowerReservations {
+
+    /** Allowance for rounding errors when comparing powers. */
+    private static final double TOLERANCE = 1e-9;
+
+    private final PiecewiseConstantFunction cap;
+    private PiecewiseConstantFunction committed = new PiecewiseConstantFunction(0.0);
+
+    public PowerReservations(PiecewiseConstantFunction cap) {
+        this.cap = cap;
+    }
+
+    /** The earliest start time, no earlier than earliest and no later than
+     * latest, at which power can be reserved for the given duration. Null
+     * if there is no such time.
+     */
+    public Double earliestStart(double earliest, double power, double duration,
+            double latest) {
+
+        final PiecewiseConstantFunction available = cap.minus(committed);
+
+        // Walk along the steps of the available power, keeping the earliest
+        // start since which there has always been enough.
+        Double start = null;
+        double from = earliest;
+        double value = available.getInitialValue();
+        for (Map.Entry<Double, Double> jump : available.jumps()) {
+            final double to = jump.getKey();
+            if (to > from) {
+                start = extendStart(start, from, value, power);
+                if (start != null && start > latest) {
+                    return null;
+                }
+                if (start != null && start + duration <= to) {
+                    return start;
+                }
+                from = to;
+            }
+            value = jump.getValue();
+        }
+
+        // The last value holds forever
+        start = extendStart(start, from, value, power);
+        return start != null && start <= latest ? start : null;
+    }
+
+    /** Where the current stretch of enough available power starts, given
+     * the next step: at time "from" with the given available power. Null if
+     * the step doesn't have enough. */
+    private static Double extendStart(Double start, double from,
+            double available, double power) {
+        if (available + TOLERANCE < power) {
+            return null;
+        }
+        return start != null ? start : from;
+    }
+
+    /** Commit the power from start for the given duration. */
+    public void reserve(double start, double duration, double power) {
+        PiecewiseConstantFunction reservation = new PiecewiseConstantFunction(0.0);
+        reservation.addJump(start, power);
+        reservation.addJump(start + duration, 0.0);
+        committed = committed.plus(reservation);
+    }
+
+    public PiecewiseConstantFunction getCap() {
+        return cap;
+    }
+
+    public PiecewiseConstantFunction getCommitted() {
+        return committed;
+    }
+}
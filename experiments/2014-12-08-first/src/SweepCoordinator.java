@@ -0,0 +1,367 @@
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import com.lexicalscope.jewel.cli.Option;
+import com.lexicalscope.jewel.cli.ArgumentValidationException;
+import com.lexicalscope.jewel.cli.CliFactory;
+import com.lexicalscope.jewel.cli.HelpRequestedException;
+
+
+/**
+ * Coordinator for a sweep run by many worker processes: fills a
+ * SweepQueue with one cell per (algorithm, application, size, variation,
+ * power cap, deadline, budget), retries failed cells and collects the
+ * results as they arrive.
+ *
+ * Workers are MySimulation and FCFSPowerCapped started with --queueDir,
+ * they can be started before or after the coordinator and on any machine
+ * which can see the queue dir.
+ *
+ * Workers renew their claims on cells while they run them. If a worker
+ * dies its claim expires after --leaseTimeout seconds and the cell is
+ * retried, up to --maxAttempts tries in total.
+ *
+ * If the coordinator dies it can be restarted with --resume, which only
+ * queues the cells which aren't in the queue already. If everything died,
+ * first run it with --recover (and no workers running) to put the cells
+ * which the dead workers had claimed back in the queue.
+ */
+public final class SweepCoordinator {
+
+    // Non-instantiable
+    private SweepCoordinator() {
+        throw new AssertionError();
+    }
+
+    public static interface Args {
+        @Option String getQueueDir();
+
+        /** Directory containing the .dag files. */
+        @Option String getDagDir();
+
+        @Option String getOutputDirRoot();
+
+        @Option(defaultValue = {"HEFT-like", "FCFS-like"})
+        List<String> getAlgorithms();
+
+        @Option(defaultValue = {"GENOME", "LIGO", "SIPHT", "MONTAGE", "CYBERSHAKE"})
+        List<String> getApplications();
+
+        @Option(defaultValue = {"50", "100", "200", "300", "400", "500",
+                    "600", "700", "800", "900", "1000"})
+        List<Integer> getSizes();
+
+        @Option(defaultValue = {"0", "1", "2", "3", "4", "5", "6", "7", "8", "9"})
+        List<Integer> getVariations();
+
+        @Option(defaultValue = {"0.2", "0.5", "0.7"})
+        List<Double> getPowerDipFractions();
+
+        /** Deadlines as multiples of the optimal makespan, unconstrained
+         * if not given. */
+        @Option(defaultToNull = true) List<Double> getDeadlineFactors();
+
+        /** Budgets as multiples of the minimum cost, unconstrained if not
+         * given. */
+        @Option(defaultToNull = true) List<Double> getBudgetFactors();
+
+        /** Total number of times to try each cell. */
+        @Option(defaultValue = "3") Integer getMaxAttempts();
+
+        /** Seconds without a heartbeat after which a worker is assumed to
+         * have died, and its cell counts as failed. */
+        @Option(defaultValue = "120") Double getLeaseTimeout();
+
+        @Option(defaultValue = "1.0") Double getPollInterval();
+
+        /** Carry on with a sweep whose coordinator died, using the cells
+         * and results which are already there. */
+        @Option boolean getResume();
+
+        /** Put cells claimed by dead workers back in the queue and exit.
+         * Only use this when no workers are running. */
+        @Option boolean getRecover();
+
+        @Option(helpRequest = true) boolean getHelp();
+    }
+
+    public static void main(String[] commandLine)
+            throws ArgumentValidationException {
+
+        // Read arguments
+        Args args = null;
+        try {
+            args = CliFactory.parseArguments(Args.class, commandLine);
+        } catch (HelpRequestedException e) {
+            System.out.println(e);
+            System.exit(0);
+        }
+
+        if (args.getLeaseTimeout() < 3 * SweepQueue.HEARTBEAT_SECONDS) {
+            throw new IllegalArgumentException(String.format(
+                    "--leaseTimeout must be at least %.0f seconds (three heartbeats)",
+                    3 * SweepQueue.HEARTBEAT_SECONDS));
+        }
+
+        final SweepQueue queue = new SweepQueue(new File(args.getQueueDir()));
+        final File outputDirRoot = new File(args.getOutputDirRoot());
+        final File resultsFile = new File(outputDirRoot, "results");
+
+        if (args.getRecover()) {
+            System.out.printf("Put %d claimed runs back in %s\n",
+                    queue.recover(), args.getQueueDir());
+            return;
+        }
+
+        // When resuming, cells which are in the queue already (in any
+        // state) were queued last time, and cells which are done may
+        // already be in the results.
+        final Set<String> queued = new HashSet<String>();
+        final Set<String> finished = new HashSet<String>();
+        int nFinished = 0, nAbandoned = 0;
+        if (args.getResume()) {
+            queue.reopen();
+
+            final Set<String> resultDirs = readResultDirs(resultsFile);
+            endWithNewline(resultsFile);
+
+            // Workers may still be running, so read the states in the order
+            // that workers move cells through them: a cell which moves on
+            // while we read is seen again in its new state, never missed.
+            // Cells only move back (retries, expired claims) when the
+            // coordinator moves them, which it isn't doing yet.
+            for (SweepQueue.Cell cell : queue.pending()) {
+                queued.add(key(cell));
+            }
+            for (SweepQueue.Cell cell : queue.running()) {
+                queued.add(key(cell));
+            }
+            for (SweepQueue.Cell cell : queue.failed()) {
+                queued.add(key(cell));
+            }
+            for (SweepQueue.Cell cell : queue.done()) {
+                queued.add(key(cell));
+                if (resultDirs.contains(new File(cell.outputDir).getPath())) {
+                    finished.add(key(cell));
+                    nFinished++;
+                }
+            }
+            for (SweepQueue.Cell cell : queue.abandoned()) {
+                queued.add(key(cell));
+                nAbandoned++;
+            }
+        }
+
+        // Fill the queue, a single null means unconstrained
+        final List<Double> deadlineFactors = args.getDeadlineFactors() == null
+                ? Collections.<Double>singletonList(null) : args.getDeadlineFactors();
+        final List<Double> budgetFactors = args.getBudgetFactors() == null
+                ? Collections.<Double>singletonList(null) : args.getBudgetFactors();
+
+        int nCells = 0;
+        for (String algorithmName : args.getAlgorithms()) {
+            for (String application : args.getApplications()) {
+                for (int size : args.getSizes()) {
+                    for (int variation : args.getVariations()) {
+                        final String dagfileBase = String.format(Locale.ROOT, "%s.n.%d.%d",
+                                application, size, variation);
+
+                        for (double powerDipFraction : args.getPowerDipFractions()) {
+                            for (Double deadlineFactor : deadlineFactors) {
+                                for (Double budgetFactor : budgetFactors) {
+                                    final SweepQueue.Cell cell = makeCell(args,
+                                            algorithmName, application, size,
+                                            dagfileBase, powerDipFraction,
+                                            deadlineFactor, budgetFactor);
+                                    if (!queued.contains(key(cell))) {
+                                        queue.enqueue(cell);
+                                    }
+                                    nCells++;
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        System.out.printf("Queued %d runs in %s (%d from before)\n",
+                nCells, args.getQueueDir(), queued.size());
+
+        // Collect results and retry failures until everything has
+        // finished one way or another.
+        while (nFinished + nAbandoned < nCells) {
+            for (SweepQueue.Cell cell : queue.done()) {
+                if (finished.add(key(cell))) {
+                    appendResult(resultsFile, cell);
+                    nFinished++;
+                }
+            }
+
+            // Cells from dead workers go to failed, so they are retried
+            // below.
+            for (SweepQueue.Cell cell : queue.expireClaims(args.getLeaseTimeout())) {
+                System.out.printf("%s %s: %s", cell.algorithmName, cell.id, cell.error);
+            }
+
+            for (SweepQueue.Cell cell : queue.failed()) {
+                if (cell.attempts + 1 < args.getMaxAttempts()) {
+                    System.out.printf("Retrying %s %s after failure:\n%s\n",
+                            cell.algorithmName, cell.id, cell.error);
+                    queue.retry(cell);
+                } else {
+                    System.out.printf("Giving up on %s %s after %d attempts:\n%s\n",
+                            cell.algorithmName, cell.id, cell.attempts + 1, cell.error);
+                    queue.abandon(cell);
+                    nAbandoned++;
+                }
+            }
+
+            SweepQueue.sleep(args.getPollInterval());
+        }
+
+        queue.close();
+
+        System.out.printf("Finished %d runs, gave up on %d, results in %s\n",
+                nFinished, nAbandoned, resultsFile);
+        if (nAbandoned > 0) {
+            System.exit(1);
+        }
+    }
+
+    /** Unique name for a cell across all algorithms. */
+    private static String key(SweepQueue.Cell cell) {
+        return cell.algorithmName + File.separator + cell.id;
+    }
+
+    private static SweepQueue.Cell makeCell(Args args, String algorithmName,
+            String application, int size, String dagfileBase,
+            double powerDipFraction, Double deadlineFactor, Double budgetFactor) {
+
+        final String constraintDir =
+                SweepQueue.constraintDirName(deadlineFactor, budgetFactor);
+
+        SweepQueue.Cell cell = new SweepQueue.Cell();
+        cell.id = dagfileBase + "_" + powerDipFraction
+                + (constraintDir.isEmpty() ? ""
+                        : "_" + constraintDir.replace(File.separator, ""));
+        cell.algorithmName = algorithmName;
+        cell.dagFileName = new File(args.getDagDir(), dagfileBase + ".dag")
+                .getAbsolutePath();
+        cell.application = application;
+        cell.size = size;
+        cell.powerDipFraction = powerDipFraction;
+        cell.deadlineFactor = deadlineFactor;
+        cell.budgetFactor = budgetFactor;
+        cell.outputDir = new File(args.getOutputDirRoot()).getAbsolutePath()
+                + File.separator + algorithmName
+                + File.separator + dagfileBase
+                + File.separator + Double.toString(powerDipFraction)
+                + File.separator + constraintDir;
+        cell.attempts = 0;
+
+        return cell;
+    }
+
+    /** Append a row of results, as a python dict literal, made from the
+     * cell and the slr_plot_data it wrote.
+     */
+    private static void appendResult(File resultsFile, SweepQueue.Cell cell) {
+        final Aggregate.Run run = Aggregate.readRun(new File(cell.outputDir));
+
+        PrintWriter writer = null;
+        try {
+            writer = new PrintWriter(new OutputStreamWriter(
+                    new FileOutputStream(resultsFile, true), "UTF-8"));
+            writer.printf(Locale.ROOT, "{'dir': '%s', 'attempts': %d", run.dir, cell.attempts + 1);
+            for (Map.Entry<String, String> field : run.fields.entrySet()) {
+                writer.printf(Locale.ROOT, ", '%s': %s", field.getKey(), pythonLiteral(field.getValue()));
+            }
+            writer.printf(Locale.ROOT, "}\n");
+        } catch (FileNotFoundException e) {
+            throw new RuntimeException(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        } finally {
+            if (writer != null) {
+                writer.close();
+            }
+        }
+    }
+
+    /** The dirs of the runs already in the results file, if any. */
+    private static Set<String> readResultDirs(File resultsFile) {
+        final Set<String> dirs = new HashSet<String>();
+        if (!resultsFile.exists()) {
+            return dirs;
+        }
+
+        // Rows start with "{'dir': 'DIR'", see appendResult. A partly
+        // written last row is ignored, so that run is added again.
+        final String prefix = "{'dir': '";
+        for (String line : Aggregate.readLines(resultsFile)) {
+            final int end = line.indexOf('\'', prefix.length());
+            if (line.startsWith(prefix) && end >= 0 && line.trim().endsWith("}")) {
+                dirs.add(line.substring(prefix.length(), end));
+            }
+        }
+        return dirs;
+    }
+
+    /** Finish off a partly written last line, so that new rows don't get
+     * appended to it. */
+    private static void endWithNewline(File file) {
+        if (!file.exists() || file.length() == 0) {
+            return;
+        }
+
+        RandomAccessFile f = null;
+        try {
+            f = new RandomAccessFile(file, "rw");
+            f.seek(f.length() - 1);
+            if (f.read() != '\n') {
+                f.write('\n');
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            if (f != null) {
+                try {
+                    f.close();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        }
+    }
+
+    private static String pythonLiteral(String value) {
+        // Lists, e.g. the headroom histograms, and the python constants
+        // used for flags and missing factors are already python
+        if (value.startsWith("[") || value.equals("True")
+                || value.equals("False") || value.equals("None")) {
+            return value;
+        }
+        try {
+            final double d = Double.parseDouble(value);
+            if (!Double.isNaN(d) && !Double.isInfinite(d)) {
+                return value;
+            }
+        } catch (NumberFormatException e) {
+            // Not a number
+        }
+        return "'" + value + "'";
+    }
+}
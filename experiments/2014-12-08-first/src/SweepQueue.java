@@ -0,0 +1,537 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.Timer;
+import java.util.TimerTask;
+
+
+/**
+ * Queue of runs ("cells") for a sweep split between many worker
+ * processes, possibly on different machines. The queue is a directory on
+ * a shared filesystem:
+ *
+ *   pending/ALGORITHM/CELL         waiting to be run
+ *   running/ALGORITHM/CELL@WORKER  claimed by a worker
+ *   done/ALGORITHM/CELL            finished, results are in the cell's
+ *                                  output dir
+ *   failed/ALGORITHM/CELL          failed, waiting for the coordinator to
+ *                                  retry it
+ *   abandoned/ALGORITHM/CELL       failed too many times
+ *   closed                         the coordinator has finished
+ *
+ * Cells only move between states by renaming files, which is atomic, so
+ * each cell is claimed by exactly one worker. Cell files are java
+ * properties files.
+ *
+ * A worker renews its claim by touching the claim file every
+ * HEARTBEAT_SECONDS while the cell runs. If the worker dies the claim
+ * goes stale, and the coordinator moves the cell to failed (see
+ * expireClaims) so that it is retried like any other failure.
+ *
+ * Everything is on disk, so if the whole sweep is killed it can be
+ * carried on by recovering the queue (see recover) and starting a
+ * coordinator with --resume and new workers.
+ */
+public final class SweepQueue {
+
+    private static final String PENDING = "pending";
+    private static final String RUNNING = "running";
+    private static final String DONE = "done";
+    private static final String FAILED = "failed";
+    private static final String ABANDONED = "abandoned";
+
+    /** How often workers renew their claims. */
+    public static final double HEARTBEAT_SECONDS = 10.0;
+
+    /** Description of a single run. */
+    public static class Cell {
+        /** Unique (for the algorithm) name, used as the file name. */
+        String id;
+
+        String algorithmName;
+        String dagFileName;
+        String application;
+        int size;
+        double powerDipFraction;
+
+        /** Deadline and budget as multiples of the optimal makespan and
+         * minimum cost, null if unconstrained. */
+        Double deadlineFactor;
+        Double budgetFactor;
+
+        /** Directory for the run's output, with a trailing separator. */
+        String outputDir;
+
+        /** Number of previous failed attempts. */
+        int attempts;
+
+        /** Description of the last failure, if any. */
+        String error;
+
+        /** File for the cell in the queue, when read from it. */
+        File file;
+
+        Properties toProperties() {
+            Properties p = new Properties();
+            p.setProperty("id", id);
+            p.setProperty("algorithmName", algorithmName);
+            p.setProperty("dagFileName", dagFileName);
+            p.setProperty("application", application);
+            p.setProperty("size", Integer.toString(size));
+            p.setProperty("powerDipFraction", Double.toString(powerDipFraction));
+            if (deadlineFactor != null) {
+                p.setProperty("deadlineFactor", deadlineFactor.toString());
+            }
+            if (budgetFactor != null) {
+                p.setProperty("budgetFactor", budgetFactor.toString());
+            }
+            p.setProperty("outputDir", outputDir);
+            p.setProperty("attempts", Integer.toString(attempts));
+            if (error != null) {
+                p.setProperty("error", error);
+            }
+            return p;
+        }
+
+        static Cell fromProperties(Properties p) {
+            Cell cell = new Cell();
+            cell.id = p.getProperty("id");
+            cell.algorithmName = p.getProperty("algorithmName");
+            cell.dagFileName = p.getProperty("dagFileName");
+            cell.application = p.getProperty("application");
+            cell.size = Integer.parseInt(p.getProperty("size"));
+            cell.powerDipFraction = Double.parseDouble(p.getProperty("powerDipFraction"));
+            cell.deadlineFactor = p.containsKey("deadlineFactor")
+                    ? Double.valueOf(p.getProperty("deadlineFactor")) : null;
+            cell.budgetFactor = p.containsKey("budgetFactor")
+                    ? Double.valueOf(p.getProperty("budgetFactor")) : null;
+            cell.outputDir = p.getProperty("outputDir");
+            cell.attempts = Integer.parseInt(p.getProperty("attempts"));
+            cell.error = p.getProperty("error");
+            return cell;
+        }
+    }
+
+    /** Runs a cell, writing its results into the cell's output dir. */
+    public static interface CellRunner {
+        void run(Cell cell) throws Exception;
+    }
+
+    private final File queueDir;
+
+    public SweepQueue(File queueDir) {
+        this.queueDir = queueDir;
+    }
+
+    /** Subdirectory of a power cap's output dir for runs with a deadline
+     * and/or budget, empty for unconstrained runs (so that they go where
+     * they always have).
+     */
+    public static String constraintDirName(Double deadlineFactor, Double budgetFactor) {
+        if (deadlineFactor == null && budgetFactor == null) {
+            return "";
+        }
+        return "deadline-" + (deadlineFactor == null ? "none" : deadlineFactor.toString())
+                + "_budget-" + (budgetFactor == null ? "none" : budgetFactor.toString())
+                + File.separator;
+    }
+
+    /** Name for a worker which is unique across machines. */
+    public static String defaultWorkerId() {
+        // This is "pid@hostname"
+        return ManagementFactory.getRuntimeMXBean().getName();
+    }
+
+
+    // Coordinator side
+    // ============================================================
+
+    public void enqueue(Cell cell) {
+        write(cell, file(PENDING, cell.algorithmName, cell.id));
+    }
+
+    /** Put a failed cell back in the queue. */
+    public void retry(Cell cell) {
+        cell.attempts += 1;
+        write(cell, file(PENDING, cell.algorithmName, cell.id));
+        delete(cell.file);
+    }
+
+    /** Give up on a failed cell. */
+    public void abandon(Cell cell) {
+        move(cell.file, file(ABANDONED, cell.algorithmName, cell.id));
+    }
+
+    public List<Cell> pending() {
+        return read(PENDING);
+    }
+
+    public List<Cell> running() {
+        return read(RUNNING);
+    }
+
+    public List<Cell> done() {
+        return read(DONE);
+    }
+
+    public List<Cell> failed() {
+        return read(FAILED);
+    }
+
+    public List<Cell> abandoned() {
+        return read(ABANDONED);
+    }
+
+    /** Tell the workers that there will be no more cells. */
+    public void close() {
+        try {
+            new File(queueDir, "closed").createNewFile();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public boolean isClosed() {
+        return new File(queueDir, "closed").exists();
+    }
+
+    /** Move cells whose claims haven't been renewed for leaseSeconds to
+     * failed, the workers which claimed them must have died. Returns the
+     * expired cells.
+     *
+     * Claims are renewed using each worker's clock and checked using
+     * ours, so the lease has to allow for any difference between the
+     * clocks as well as for several missed heartbeats.
+     */
+    public List<Cell> expireClaims(double leaseSeconds) {
+        final List<Cell> expired = new ArrayList<Cell>();
+        final long now = System.currentTimeMillis();
+
+        for (Cell cell : running()) {
+            // (zero if the file has moved since we read it)
+            final long renewed = cell.file.lastModified();
+            if (renewed == 0 || now - renewed < leaseSeconds * 1000) {
+                continue;
+            }
+
+            // If the worker finishes the cell at the same time only one of
+            // us gets the claim.
+            final File taken = takeClaim(cell);
+            if (taken == null) {
+                continue;
+            }
+
+            final String name = cell.file.getName();
+            cell.error = String.format(
+                    "Claim by worker %s expired, last renewed %.0f seconds ago\n",
+                    name.substring(name.indexOf('@') + 1), (now - renewed) / 1.0e3);
+            write(cell, file(FAILED, cell.algorithmName, cell.id));
+            delete(taken);
+
+            expired.add(cell);
+        }
+
+        return expired;
+    }
+
+    /** Put cells claimed by workers back in the queue and reopen it,
+     * after the whole sweep was killed. Only safe when no workers are
+     * running, since there is no way to tell whether a claim belongs to a
+     * live worker. Returns the number of cells put back.
+     */
+    public int recover() {
+        final List<Cell> claimed = running();
+        for (Cell cell : claimed) {
+            move(cell.file, file(PENDING, cell.algorithmName, cell.id));
+        }
+
+        reopen();
+        return claimed.size();
+    }
+
+    /** Undo close, e.g. to add more cells to a finished sweep. */
+    public void reopen() {
+        final File closed = new File(queueDir, "closed");
+        if (closed.exists()) {
+            delete(closed);
+        }
+    }
+
+
+    // Worker side
+    // ============================================================
+
+    /** Take the next pending cell for the algorithm, or null if there
+     * are none.
+     */
+    public Cell claim(String algorithmName, String workerId) {
+        final File[] pending = dir(PENDING, algorithmName).listFiles();
+        if (pending == null) {
+            return null;
+        }
+
+        // Take them in order so that cells from the same DAG tend to go
+        // to the same worker.
+        Arrays.sort(pending);
+        for (File f : pending) {
+            final File claimed = file(RUNNING, algorithmName, f.getName() + "@" + workerId);
+            claimed.getParentFile().mkdirs();
+
+            // Renaming doesn't change the modification time, so renew the
+            // claim first, or a cell which waited longer than the lease
+            // would expire straight away.
+            f.setLastModified(System.currentTimeMillis());
+
+            // If the rename fails another worker got there first
+            if (f.renameTo(claimed)) {
+                Cell cell = Cell.fromProperties(load(claimed));
+                cell.file = claimed;
+                return cell;
+            }
+        }
+
+        return null;
+    }
+
+    public void complete(Cell cell) {
+        final File done = file(DONE, cell.algorithmName, cell.id);
+        done.getParentFile().mkdirs();
+        if (!cell.file.renameTo(done)) {
+            claimLost(cell);
+        }
+    }
+
+    public void fail(Cell cell, Throwable error) {
+        StringWriter trace = new StringWriter();
+        error.printStackTrace(new PrintWriter(trace));
+        cell.error = trace.toString();
+
+        // Renew the claim so that it can't expire while we rewrite it with
+        // the error, then move it to failed in one go. That way the cell is
+        // always in either running or failed, so a coordinator reading the
+        // queue on --resume sees it.
+        if (!cell.file.setLastModified(System.currentTimeMillis())) {
+            claimLost(cell);
+            return;
+        }
+        write(cell, cell.file);
+
+        final File failed = file(FAILED, cell.algorithmName, cell.id);
+        failed.getParentFile().mkdirs();
+        if (!cell.file.renameTo(failed)) {
+            claimLost(cell);
+        }
+    }
+
+    private void claimLost(Cell cell) {
+        if (cell.file.exists()) {
+            throw new RuntimeException("Failed to move " + cell.file);
+        }
+        System.out.printf("Claim on %s %s expired before it finished, it will be retried\n",
+                cell.algorithmName, cell.id);
+    }
+
+    /** Touch the claim file every HEARTBEAT_SECONDS until cancelled. */
+    private static Timer renewClaim(final Cell cell) {
+        final Timer timer = new Timer(true);
+        final long period = (long) (HEARTBEAT_SECONDS * 1000);
+        timer.schedule(new TimerTask() {
+                @Override
+                public void run() {
+                    // Fails harmlessly if the claim has expired
+                    cell.file.setLastModified(System.currentTimeMillis());
+                }
+            }, period, period);
+        return timer;
+    }
+
+    /** Run cells for the algorithm until the coordinator closes the
+     * queue. Failures are passed back to the coordinator to be retried.
+     */
+    public void work(String algorithmName, String workerId,
+            double pollIntervalSeconds, CellRunner runner) {
+        while (true) {
+            final Cell cell = claim(algorithmName, workerId);
+            if (cell == null) {
+                if (isClosed()) {
+                    return;
+                }
+                sleep(pollIntervalSeconds);
+                continue;
+            }
+
+            System.out.printf("Worker %s running %s %s\n", workerId, algorithmName, cell.id);
+            Throwable error = null;
+            final Timer heartbeat = renewClaim(cell);
+            try {
+                runner.run(cell);
+            } catch (Exception e) {
+                error = e;
+            } catch (OutOfMemoryError e) {
+                // The run's objects are unreachable now, so we can
+                // probably carry on with the next cell.
+                error = e;
+            } finally {
+                heartbeat.cancel();
+            }
+
+            if (error != null) {
+                fail(cell, error);
+            } else {
+                complete(cell);
+            }
+        }
+    }
+
+    static void sleep(double seconds) {
+        try {
+            Thread.sleep((long) (seconds * 1000));
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+
+    // Files
+    // ============================================================
+
+    /** Take a claim away from whoever holds it by moving it somewhere
+     * private, null if it has already gone.
+     */
+    private File takeClaim(Cell cell) {
+        final File tmpDir = new File(queueDir, "tmp");
+        tmpDir.mkdirs();
+        final File taken = new File(tmpDir, cell.algorithmName + "-" + cell.file.getName()
+                + "-taken-by-" + defaultWorkerId());
+        return cell.file.renameTo(taken) ? taken : null;
+    }
+
+    private File dir(String state, String algorithmName) {
+        return new File(new File(queueDir, state), algorithmName);
+    }
+
+    private File file(String state, String algorithmName, String name) {
+        return new File(dir(state, algorithmName), name);
+    }
+
+    /** Read all cells in a state, for all algorithms. */
+    private List<Cell> read(String state) {
+        final List<Cell> cells = new ArrayList<Cell>();
+
+        final File[] algorithmDirs = new File(queueDir, state).listFiles();
+        if (algorithmDirs == null) {
+            return cells;
+        }
+        Arrays.sort(algorithmDirs);
+
+        for (File algorithmDir : algorithmDirs) {
+            final File[] files = algorithmDir.listFiles();
+            if (files == null) {
+                continue;
+            }
+            Arrays.sort(files);
+
+            for (File f : files) {
+                // Skip files which moved away since we listed them, workers
+                // can move cells at any time.
+                final Properties p = loadIfPresent(f);
+                if (p == null) {
+                    continue;
+                }
+                final Cell cell = Cell.fromProperties(p);
+                cell.file = f;
+                cells.add(cell);
+            }
+        }
+
+        return cells;
+    }
+
+    /** Write via a temporary file and rename, so that nobody sees a
+     * partly written cell.
+     */
+    private void write(Cell cell, File target) {
+        final File tmpDir = new File(queueDir, "tmp");
+        tmpDir.mkdirs();
+        final File tmp = new File(tmpDir, cell.algorithmName + "-" + cell.id
+                + "-" + defaultWorkerId());
+
+        OutputStream out = null;
+        try {
+            out = new FileOutputStream(tmp);
+            cell.toProperties().store(out, null);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            close(out);
+        }
+
+        move(tmp, target);
+    }
+
+    private static Properties load(File f) {
+        final Properties p = loadIfPresent(f);
+        if (p == null) {
+            throw new RuntimeException("Cell " + f + " has gone");
+        }
+        return p;
+    }
+
+    /** Load a cell file, or null if it isn't there. Once the file is open
+     * it can be read even if it is then moved.
+     */
+    private static Properties loadIfPresent(File f) {
+        InputStream in = null;
+        try {
+            in = new FileInputStream(f);
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+
+        Properties p = new Properties();
+        try {
+            p.load(in);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            close(in);
+        }
+        return p;
+    }
+
+    private static void move(File from, File to) {
+        to.getParentFile().mkdirs();
+        if (!from.renameTo(to)) {
+            throw new RuntimeException("Failed to move " + from + " to " + to);
+        }
+    }
+
+    private static void delete(File f) {
+        if (!f.delete()) {
+            throw new RuntimeException("Failed to delete " + f);
+        }
+    }
+
+    private static void close(Closeable c) {
+        if (c != null) {
+            try {
+                c.close();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,670 @@
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import static java.util.Arrays.asList;
+
+import com.lexicalscope.jewel.cli.Option;
+import com.lexicalscope.jewel.cli.ArgumentValidationException;
+import com.lexicalscope.jewel.cli.CliFactory;
+import com.lexicalscope.jewel.cli.HelpRequestedException;
+
+import org.cloudbus.cloudsim.Log;
+
+import cws.core.Cloud;
+import cws.core.algorithms.Algorithm;
+import cws.core.algorithms.AlgorithmStatistics;
+import cws.core.core.PiecewiseConstantFunction;
+
+import cws.core.cloudsim.CloudSimWrapper;
+import cws.core.core.VMType;
+import cws.core.core.VMTypeLoader;
+import cws.core.dag.DAG;
+import cws.core.dag.DAGParser;
+import cws.core.dag.algorithms.CriticalPath;
+import cws.core.dag.algorithms.TopologicalOrder;
+
+import cws.core.storage.StorageManagerFactory;
+import cws.core.simulation.StorageSimulationParams;
+import cws.core.simulation.StorageType;
+import cws.core.simulation.StorageCacheType;
+
+
+/**
+ * Everything about a power capped experiment apart from the scheduling
+ * algorithm: the sweep over power caps, deadlines and budgets for a DAG
+ * (or a worker for a distributed sweep, see SweepCoordinator), running
+ * each simulation and writing out its results.
+ *
+ * MySimulation and FCFSPowerCapped each give it their algorithm. Shared
+ * by both experiments, the FCFS build compiles it from here.
+ */
+public final class SweepRunner {
+
+    public static class RunStats {
+        double maxPowerUsage;
+        double totalEnergyConsumed;
+
+        double makespan;
+        double optimalMakespan;
+
+        String application;
+        int size;
+        double powerDipFraction;
+
+        double planningWallTime;
+        double simulationWallTime;
+
+        /** Multiples of the optimal makespan and minimum cost used for
+         * the deadline and budget, null if unconstrained. */
+        Double deadlineFactor;
+        Double budgetFactor;
+
+        double deadline;
+        double budget;
+        double cost;
+
+        /** M instructions per second. */
+        double throughput;
+
+        boolean metDeadline;
+        boolean metBudget;
+        boolean metPowerCap;
+
+        /** Use of the power under the cap, from the power gap. */
+        PowerAnalytics power;
+    }
+
+    /** Builds the scheduling algorithm for a run, this is the only part
+     * which differs between the experiments.
+     */
+    public static interface AlgorithmBuilder {
+        /** Build the algorithm, with its workflow engine, for the DAG
+         * ready to simulate. */
+        Algorithm build(DAG dag, VMType vmType, PiecewiseConstantFunction powerCap,
+                double budget, double deadline, Cloud cloud,
+                CloudSimWrapper cloudsim);
+    }
+
+    /** Value used for the budget or deadline when there is no
+     * constraint. */
+    static final double UNCONSTRAINED = 1e50;
+
+    private final String algorithmName;
+    private final AlgorithmBuilder algorithmBuilder;
+
+    public SweepRunner(String algorithmName, AlgorithmBuilder algorithmBuilder) {
+        this.algorithmName = algorithmName;
+        this.algorithmBuilder = algorithmBuilder;
+    }
+
+    public static interface Args {
+        @Option String getVmFile();
+
+        // These are needed unless running as a worker
+        @Option(defaultToNull = true) String getOutputDirBase();
+        @Option(defaultToNull = true) String getDagFileName();
+        @Option(defaultToNull = true) String getApplication();
+        @Option(defaultToNull = true) Integer getSize();
+
+        /** File shared by all runs in a sweep to log progress to, read by
+         * sweep-status.py. */
+        @Option(defaultToNull = true) String getRunLog();
+
+        /** Run as a worker for a distributed sweep, taking runs from the
+         * queue in this dir (see SweepCoordinator). */
+        @Option(defaultToNull = true) String getQueueDir();
+
+        @Option(defaultToNull = true) String getWorkerId();
+
+        @Option(defaultValue = "1.0") Double getPollInterval();
+
+        /** Deadlines to sweep over, as multiples of the optimal makespan
+         * for the power cap. Unconstrained if not given. */
+        @Option(defaultToNull = true) List<Double> getDeadlineFactors();
+
+        /** Budgets to sweep over, as multiples of the minimum cost of the
+         * DAG. Unconstrained if not given. */
+        @Option(defaultToNull = true) List<Double> getBudgetFactors();
+
+        /** Skip runs which already have results, to carry on with a sweep
+         * which was killed part way through. */
+        @Option boolean getResume();
+
+        @Option(helpRequest = true) boolean getHelp();
+    }
+
+    /** Run the sweep, or a worker, as given by the command line. */
+    public void run(String[] commandLine)
+            throws ArgumentValidationException, FileNotFoundException {
+
+        // Read arguments
+        Args args = null;
+        try {
+            args = CliFactory.parseArguments(Args.class, commandLine);
+        } catch (HelpRequestedException e) {
+            System.out.println(e);
+            System.exit(0);
+        }
+
+        final VMType vmType = (new VMTypeLoader()).determineVMTypeFromFile(args.getVmFile());
+
+        if (args.getQueueDir() != null) {
+            runWorker(args, vmType);
+            return;
+        }
+
+        if (args.getOutputDirBase() == null || args.getDagFileName() == null
+                || args.getApplication() == null || args.getSize() == null) {
+            throw new IllegalArgumentException(
+                    "--outputDirBase, --dagFileName, --application and --size are required unless running as a worker (--queueDir)");
+        }
+
+        // Get the dag
+        final DAG dag = parseDag(args.getDagFileName());
+
+
+        // Estimate time and power usage
+        // ============================================================
+        // (for constructing interesting power cap functions)
+
+        // Compute a lower bound for the makespan based on the critical
+        // path computation time
+        final double timeEst = criticalPathMakespanBound(dag, vmType);
+
+        final double basePower = powerEstimate(dag, vmType, timeEst);
+
+        // Run with power caps which dip in the middle
+        // ============================================================
+        final List<Double> powerConstraints = asList(0.2, 0.5, 0.7);
+
+        // and with each combination of deadline and budget
+        final List<Double> deadlineFactors = constraintFactors(args.getDeadlineFactors());
+        final List<Double> budgetFactors = constraintFactors(args.getBudgetFactors());
+
+        for (double powerConstraint : powerConstraints)
+        {
+            for (Double deadlineFactor : deadlineFactors)
+            {
+                for (Double budgetFactor : budgetFactors)
+                {
+                    final String dir = args.getOutputDirBase() + File.separator
+                            + Double.toString(powerConstraint) + File.separator
+                            + SweepQueue.constraintDirName(deadlineFactor, budgetFactor);
+
+                    if (args.getResume() && hasResults(dir)) {
+                        System.out.printf("Skipping %s, already has results\n", dir);
+                        continue;
+                    }
+
+                    runPowerCap(dag, args.getDagFileName(), timeEst, basePower,
+                            vmType, powerConstraint, deadlineFactor, budgetFactor,
+                            dir, args.getApplication(), args.getSize(),
+                            args.getRunLog());
+                }
+            }
+        }
+    }
+
+    /** Factors to sweep over for a deadline or budget, a single null
+     * (i.e. unconstrained) if none were given.
+     */
+    private static List<Double> constraintFactors(List<Double> factors) {
+        return factors == null ? Collections.<Double>singletonList(null) : factors;
+    }
+
+    /** Take runs from the queue of a distributed sweep until the
+     * coordinator closes it.
+     */
+    private void runWorker(final Args args, final VMType vmType) {
+        final String workerId = args.getWorkerId() != null
+                ? args.getWorkerId() : SweepQueue.defaultWorkerId();
+        final SweepQueue queue = new SweepQueue(new File(args.getQueueDir()));
+
+        // Workers usually get several runs in a row from the same DAG, so
+        // keep the last one and its estimates around.
+        final LastDag last = new LastDag();
+
+        queue.work(algorithmName, workerId, args.getPollInterval(),
+                new SweepQueue.CellRunner() {
+                    @Override
+                    public void run(SweepQueue.Cell cell) {
+                        // The previous worker may have died between
+                        // finishing the run and telling the queue.
+                        if (args.getResume() && hasResults(cell.outputDir)) {
+                            System.out.printf("Skipping %s, already has results\n",
+                                    cell.outputDir);
+                            return;
+                        }
+
+                        if (!cell.dagFileName.equals(last.fileName)) {
+                            last.dag = parseDag(cell.dagFileName);
+                            last.timeEst = criticalPathMakespanBound(last.dag, vmType);
+                            last.basePower = powerEstimate(last.dag, vmType, last.timeEst);
+                            last.fileName = cell.dagFileName;
+                        }
+
+                        runPowerCap(last.dag, cell.dagFileName, last.timeEst,
+                                last.basePower, vmType, cell.powerDipFraction,
+                                cell.deadlineFactor, cell.budgetFactor,
+                                cell.outputDir, cell.application, cell.size,
+                                args.getRunLog());
+                    }
+                });
+    }
+
+    /** The most recently used DAG in a worker. */
+    private static final class LastDag {
+        String fileName;
+        DAG dag;
+        double timeEst;
+        double basePower;
+    }
+
+    /** Run the DAG with a power cap which dips to powerConstraint times
+     * basePower in the middle ~1/3 of timeEst, writing the output into
+     * dir. The deadline and budget are given as multiples of the optimal
+     * makespan and minimum cost, or null if unconstrained.
+     */
+    private RunStats runPowerCap(DAG dag, String dagFileName,
+            double timeEst,
+            double basePower,
+            VMType vmType,
+            double powerConstraint,
+            Double deadlineFactor,
+            Double budgetFactor,
+            String dir,
+            String application,
+            int size,
+            String runLog) {
+
+        //??ds Should I make sure the power is always more than the power
+        //for one VM?
+
+        // Make a varying power cap with a power supply dip in the
+        // middle ~1/3 of the time.
+        PiecewiseConstantFunction powerCap =
+                new PiecewiseConstantFunction(0.0);
+        powerCap.addJump(0.0, basePower);
+        powerCap.addJump(timeEst/3, basePower*powerConstraint);
+        powerCap.addJump(2*timeEst/3, basePower);
+
+        // Deadline and budget relative to the best that we could hope for
+        final double deadline = deadlineFactor == null ? UNCONSTRAINED
+                : deadlineFactor * optimalMakespan(powerCap, vmType, dag);
+        final double budget = budgetFactor == null ? UNCONSTRAINED
+                : budgetFactor * minimumCost(dag, vmType);
+
+        // Make the directory
+        (new File(dir)).mkdirs();
+
+        // and run it
+        final String runDescription = String.format(Locale.ROOT,
+                "'algorithmName': '%s', 'application': '%s', 'size': %d, 'powerDipFraction': %f, 'dir': '%s'",
+                algorithmName, application, size, powerConstraint, dir);
+        appendToRunLog(runLog, "start", runDescription);
+        final long runStartTime = System.nanoTime();
+
+        RunStats data = runTest(dag, dir, vmType, powerCap,
+                dagFileName, budget, deadline);
+
+        data.application = application;
+        data.size = size;
+        data.powerDipFraction = powerConstraint;
+        data.deadlineFactor = deadlineFactor;
+        data.budgetFactor = budgetFactor;
+
+        // write data needed for SLR-like plot
+        writeSLRPlotData(dir, data, algorithmName);
+
+        final double wallTime = (System.nanoTime() - runStartTime) / 1.0e9;
+        final Runtime runtime = Runtime.getRuntime();
+        appendToRunLog(runLog, "done", runDescription
+                + String.format(Locale.ROOT, ", 'wallTime': %f, 'planningTime': %f, 'simulationTime': %f, 'heapUsed': %d, 'heapMax': %d",
+                        wallTime, data.planningWallTime, data.simulationWallTime,
+                        runtime.totalMemory() - runtime.freeMemory(),
+                        runtime.maxMemory()));
+
+        return data;
+    }
+
+    /** Has the run in dir finished? The results are written last, so if
+     * they are there then so is everything else.
+     */
+    private static boolean hasResults(String dir) {
+        return new File(dir, "slr_plot_data").isFile();
+    }
+
+    private static void writeSLRPlotData(String dir, RunStats data, String algorithmName) {
+        File file = new File(dir, "slr_plot_data");
+
+        // Write via a temporary file and rename, so that a run which is
+        // killed part way through can't leave partial results behind
+        // (resuming relies on this).
+        File tmp = new File(dir, "slr_plot_data.tmp");
+
+        PrintWriter writer = null;
+        try {
+            writer = new PrintWriter(tmp.toString(), "UTF-8");
+            writer.printf(Locale.ROOT, "'application' '%s'\n", data.application);
+            writer.printf(Locale.ROOT, "'size' '%s'\n", data.size);
+            writer.printf(Locale.ROOT, "'optimalMakespan' %f\n", data.optimalMakespan);
+            writer.printf(Locale.ROOT, "'makespan' %f\n", data.makespan);
+            writer.printf(Locale.ROOT, "'powerDipFraction' %f\n", data.powerDipFraction);
+            writer.printf(Locale.ROOT, "'algorithmName' '%s'\n", algorithmName);
+            writer.printf(Locale.ROOT, "'deadlineFactor' %s\n", pythonFormatFactor(data.deadlineFactor));
+            writer.printf(Locale.ROOT, "'budgetFactor' %s\n", pythonFormatFactor(data.budgetFactor));
+            writer.printf(Locale.ROOT, "'deadline' %g\n", data.deadline);
+            writer.printf(Locale.ROOT, "'budget' %g\n", data.budget);
+            writer.printf(Locale.ROOT, "'cost' %f\n", data.cost);
+            writer.printf(Locale.ROOT, "'throughput' %f\n", data.throughput);
+            writer.printf(Locale.ROOT, "'metDeadline' %s\n", pythonFormatBool(data.metDeadline));
+            writer.printf(Locale.ROOT, "'metBudget' %s\n", pythonFormatBool(data.metBudget));
+            writer.printf(Locale.ROOT, "'metPowerCap' %s\n", pythonFormatBool(data.metPowerCap));
+            writer.printf(Locale.ROOT, "'timeOverCap' %f\n", data.power.timeOverCap);
+            writer.printf(Locale.ROOT, "'energyOverCap' %f\n", data.power.energyOverCap);
+            writer.printf(Locale.ROOT, "'capUtilisation' %f\n", data.power.capUtilisation());
+            writer.printf(Locale.ROOT, "'unusedEnergyInDip' %f\n", data.power.unusedEnergyInDip);
+            writer.printf(Locale.ROOT, "'unusedEnergyOutsideDip' %f\n", data.power.unusedEnergyOutsideDip);
+            writer.printf(Locale.ROOT, "'headroomHistogramInDip' %s\n",
+                    PowerAnalytics.pythonFormatHistogram(data.power.headroomHistogramInDip));
+            writer.printf(Locale.ROOT, "'headroomHistogramOutsideDip' %s\n",
+                    PowerAnalytics.pythonFormatHistogram(data.power.headroomHistogramOutsideDip));
+        } catch (FileNotFoundException e) {
+            throw new RuntimeException(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        } finally {
+            writer.close();
+        }
+
+        if (!tmp.renameTo(file)) {
+            throw new RuntimeException("Failed to move " + tmp + " to " + file);
+        }
+    }
+
+    /** Append an event to the run log as a python dict literal on a
+     * single line. Lines are small enough to be written atomically, so
+     * many runs can share one log. Does nothing if there is no run log.
+     */
+    private static void appendToRunLog(String runLog, String event, String fields) {
+        if (runLog == null) {
+            return;
+        }
+
+        PrintWriter writer = null;
+        try {
+            writer = new PrintWriter(new OutputStreamWriter(
+                    new FileOutputStream(runLog, true), "UTF-8"));
+            writer.printf(Locale.ROOT, "{'event': '%s', 'time': %f, %s}\n",
+                    event, System.currentTimeMillis() / 1.0e3, fields);
+        } catch (FileNotFoundException e) {
+            throw new RuntimeException(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        } finally {
+            if (writer != null) {
+                writer.close();
+            }
+        }
+    }
+
+    public RunStats runTest(DAG dag,
+            String outputDirName,
+            VMType vmType,
+            PiecewiseConstantFunction powerCap,
+            String dagFileName,
+            double budget,
+            double deadline) {
+
+        final String outputFileName = outputDirName + "out.log";
+        final String powerFileName = outputDirName + "power.log";
+
+        // Make CloudSim object
+        OutputStream logStream = getLogOutputStream(outputFileName);
+        CloudSimWrapper cloudsim = new CloudSimWrapper(logStream);
+        cloudsim.setLogsEnabled(true);
+        Log.disable(); // We do not need Cloudsim's logs. We have our own.
+        cloudsim.init();
+
+        // Create storage manager (and register it with cloudsim somehow).
+        // Use trivial storage simulation only
+        StorageSimulationParams simulationParams = new StorageSimulationParams();
+        simulationParams.setStorageCacheType(StorageCacheType.VOID);
+        simulationParams.setStorageType(StorageType.VOID);
+        StorageManagerFactory.createStorage(simulationParams, cloudsim);
+
+        // Initial logs
+        cloudsim.log("budget = " + budget);
+        cloudsim.log("deadline = " + deadline);
+        logWorkflowsDescription(dag, dagFileName, cloudsim);
+
+        // Build our cloud
+        Cloud cloud = new Cloud(cloudsim);
+
+
+        // Build and plan the algorithm
+        // ============================================================
+
+        Algorithm algorithm = algorithmBuilder.build(dag, vmType, powerCap,
+                budget, deadline, cloud, cloudsim);
+
+        // Run
+        algorithm.simulate();
+
+
+        // Generate stats about how well the job did
+        // ============================================================
+        AlgorithmStatistics algorithmStatistics = algorithm.getAlgorithmStatistics();
+        final double planningTime = algorithm.getPlanningnWallTime() / 1.0e9;
+        final double simulationTime = cloudsim.getSimulationWallTime() / 1.0e9;
+
+
+        // Log power usage
+        // ============================================================
+        final PiecewiseConstantFunction powerUsed =
+                algorithmStatistics.getPowerUsage();
+        final PiecewiseConstantFunction powerGap
+                = powerCap.minus(algorithmStatistics.getPowerUsage());
+
+        PrintWriter powerLog = null;
+        try {
+            powerLog = new PrintWriter(powerFileName, "UTF-8");
+            powerLog.print(pythonFormatPFunc("power gap", powerGap));
+            powerLog.print(pythonFormatPFunc("power cap", powerCap));
+            powerLog.print(pythonFormatPFunc("power used", powerUsed));
+        } catch (FileNotFoundException e) {
+            throw new RuntimeException(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        } finally {
+            powerLog.close();
+        }
+
+        final double makespan = algorithmStatistics.getLastJobFinishTime();
+
+        final double om = optimalMakespan(powerCap, vmType, dag);
+        System.out.printf("optimal makespan: %f\n", om);
+        System.out.printf("actual makespan: %f\n", makespan);
+        System.out.printf("ratio: %f\n\n", makespan/om);
+
+
+        RunStats stats = new RunStats();
+        // (the power usage can have no jumps at all, e.g. with the
+        // dynamic algorithm)
+        if (!powerUsed.jumpValues().isEmpty()) {
+            stats.maxPowerUsage = Collections.max(powerUsed.jumpValues());
+            stats.totalEnergyConsumed = powerUsed.integral(0.0, makespan);
+        }
+        stats.makespan = algorithmStatistics.getLastJobFinishTime();
+        stats.optimalMakespan = om;
+        stats.planningWallTime = planningTime;
+        stats.simulationWallTime = simulationTime;
+
+        // Did we meet the constraints?
+        stats.deadline = deadline;
+        stats.budget = budget;
+        stats.cost = algorithmStatistics.getActualCost();
+        stats.throughput = dag.getTotalSize() / makespan;
+        stats.metDeadline = makespan <= deadline;
+        stats.metBudget = stats.cost <= budget;
+        stats.metPowerCap = neverNegative(powerGap);
+
+        stats.power = PowerAnalytics.compute(powerCap, powerGap, makespan);
+
+        return stats;
+
+    }
+
+
+    private static void logWorkflowsDescription(DAG dag, String dagFileName,
+            CloudSimWrapper cloudsim) {
+
+        String workflowDescription =
+                String.format(Locale.ROOT, "Workflow %s, priority = %d, filename = %s",
+                        dag.getId(),
+                        0,
+                        dagFileName);
+
+        cloudsim.log(workflowDescription);
+    }
+
+    private static <T,U> String pythonFormatMap(Collection<Map.Entry<T,U>> map) {
+        String a = "{";
+        for (Map.Entry<T,U> e : map) {
+            a += e.getKey().toString() + ":" + e.getValue().toString() + ", ";
+        }
+        a += "}";
+        return a;
+    }
+
+    private static String pythonFormatFactor(Double factor) {
+        return factor == null ? "None" : factor.toString();
+    }
+
+    private static String pythonFormatBool(boolean b) {
+        return b ? "True" : "False";
+    }
+
+    /** Check that a function is never negative, up to rounding errors. */
+    private static boolean neverNegative(PiecewiseConstantFunction f) {
+        final double tolerance = -1e-6;
+        if (f.getInitialValue() < tolerance) {
+            return false;
+        }
+        for (double value : f.jumpValues()) {
+            if (value < tolerance) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static String pythonFormatPFunc(String label, PiecewiseConstantFunction f) {
+        final String mapAsString = pythonFormatMap(f.jumps());
+        return String.format(Locale.ROOT, "('%s', %f, %s)\n",
+                label, f.getInitialValue(), mapAsString);
+    }
+
+    /**
+     * Returns output stream for logs for current simulation.
+     */
+    private static OutputStream getLogOutputStream(String outputFileName) {
+        try {
+            return new FileOutputStream(new File(outputFileName));
+        } catch (FileNotFoundException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /** Load dags from file.
+     */
+    static DAG parseDag(String dagFileName) {
+        final File dagFile = new File(dagFileName);
+        DAG dag = DAGParser.parseDAG(dagFile);
+        dag.setId("0");
+        return dag;
+    }
+
+    /** Compute a lower bound on the makespan based on summing the
+     * computation time for tasks in the critical path of the DAG.
+     */
+    private static double criticalPathMakespanBound(DAG dag, VMType vmType) {
+        // Could extend to heterogeneous VMs by using SLR definition from
+        // HEFT paper (Topcuoglu2002 eq 11).
+        final CriticalPath cp = new CriticalPath(new TopologicalOrder(dag), vmType);
+        return cp.getCriticalPathLength();
+    }
+
+    /** Power such that the energy provided by time timeEst is
+     * approximately the energy consumed by the uncapped run.
+     */
+    private static double powerEstimate(DAG dag, VMType vmType, double timeEst) {
+        // Get estimate of energy consumed by counting the number of
+        // instructions in the DAG and getting energy per instruction from
+        // the vm.
+        final double joulesPerMInstructions = vmType.getPowerConsumption() / vmType.getMips();
+        final double totalEnergyNeeded = dag.getTotalSize() * joulesPerMInstructions;
+        return totalEnergyNeeded / timeEst;
+    }
+
+    /** Lower bound on the cost: running every task back to back on a
+     * single VM.
+     */
+    private static double minimumCost(DAG dag, VMType vmType) {
+        final double totalRunTime = dag.getTotalSize() / vmType.getMips();
+        return Math.ceil(totalRunTime / vmType.getBillingTimeInSeconds())
+                * vmType.getPriceForBillingUnit();
+    }
+
+    /**
+     * Compute an optimal makespan based on the amount of computation that
+     * can be done within the power cap. Based on the simplifying
+     * assumption that the optimal makespan is after the final change in
+     * the power cap.
+     */
+    private static double optimalMakespan(PiecewiseConstantFunction powerCap,
+            VMType vmType, DAG dag) {
+
+        // Could extend to heterogeneous VMs (multiple VM types) by taking
+        // the mean M instructions per joule.
+
+        final Map.Entry<Double, Double> lastJump = powerCap.getFinalJump();
+        final double lastJumpTime = lastJump.getKey();
+        final double lastJumpPower = lastJump.getValue();
+
+        final double mInstructionsPerJoule = vmType.getMips() / vmType.getPowerConsumption();
+        final double totalMInstructionsNeeded = dag.getTotalSize();
+
+        // Compute how many instructions we could have completed before the
+        // last jump in the power cap.
+        final double baseEnergy = powerCap.integral(0.0, lastJumpTime);
+        final double baseInstructions = baseEnergy * mInstructionsPerJoule;
+
+        // So from now on the power is fixed, compute time to finish with
+        // this power.
+        final double remainingInstructions = totalMInstructionsNeeded - baseInstructions;
+        final double remainingEnergy = remainingInstructions / mInstructionsPerJoule;
+        final double remainingTime = remainingEnergy / lastJumpPower;
+        final double optimalMakespan = lastJumpTime + remainingTime;
+
+        // We assumed that we are not finished until after the final jump,
+        // check that this is true.
+        if(remainingInstructions < 0) {
+            throw new RuntimeException("This function assumes that the final change in the power cap is earlier than the makespan, but this was not true.");
+        }
+
+        return optimalMakespan;
+    }
+
+
+}
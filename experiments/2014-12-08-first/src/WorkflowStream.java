@@ -0,0 +1,382 @@
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.PrintWriter;
+import java.io.UnsupportedEncodingException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import com.lexicalscope.jewel.cli.Option;
+import com.lexicalscope.jewel.cli.ArgumentValidationException;
+import com.lexicalscope.jewel.cli.CliFactory;
+import com.lexicalscope.jewel.cli.HelpRequestedException;
+
+import cws.core.Cloud;
+import cws.core.algorithms.Algorithm;
+import cws.core.algorithms.heterogeneous.HeftPlanner;
+import cws.core.algorithms.heterogeneous.Planner;
+import cws.core.algorithms.heterogeneous.TrivialPlanner;
+import cws.core.cloudsim.CloudSimWrapper;
+import cws.core.core.PiecewiseConstantFunction;
+import cws.core.core.VMType;
+import cws.core.core.VMTypeLoader;
+import cws.core.dag.DAG;
+
+
+/**
+ * Reservation model of an open system: workflows arrive one after another
+ * over a long horizon and an admission controller decides when (or
+ * whether) to start them based on how much of the power cap is not yet
+ * committed.
+ *
+ * This is not a simulation of the stream. Each DAG is simulated once,
+ * uncapped and with the planner given by --templatePlanner, to get its
+ * makespan, peak power and energy. From then on the workflows are just
+ * reservations: an arriving workflow reserves its peak power for its
+ * makespan at the earliest time that fits under the cap minus the power
+ * already reserved by earlier workflows. It is rejected if that would mean
+ * waiting longer than --maxQueueTime. So it compares admission policies,
+ * not scheduling algorithms.
+ *
+ * Feeding the arrivals through EnsembleManager would need changes to
+ * cloudworkflowsimulator, which takes the whole ensemble up front (see the
+ * README).
+ *
+ * The power cap repeats every --capPeriod seconds, dipping to
+ * --powerDipFraction of its base value in the middle third of each period.
+ */
+public final class WorkflowStream {
+
+    /** A DAG which arriving workflows are copies of. */
+    public static class Template {
+        String dagFileName;
+        double makespan;
+        double peakPower;
+        double energy;
+
+        /** Total M instructions. */
+        double size;
+    }
+
+    /** An arrived workflow. */
+    public static class Workflow {
+        Template template;
+        double arrivalTime;
+
+        /** Null if rejected. */
+        Double startTime;
+    }
+
+    // Non-instantiable
+    private WorkflowStream() {
+        throw new AssertionError();
+    }
+
+    public static interface Args {
+        @Option String getVmFile();
+
+        /** DAGs to draw arriving workflows from (uniformly). */
+        @Option List<String> getDagFileNames();
+
+        @Option String getOutputDir();
+
+        /** Length of the simulation in seconds. */
+        @Option Double getHorizon();
+
+        @Option Double getMeanInterarrivalTime();
+
+        /** "poisson" or "periodic". */
+        @Option(defaultValue = "poisson") String getArrivalProcess();
+
+        /** Base value of the power cap, as a multiple of the mean peak
+         * power of the DAGs. */
+        @Option(defaultValue = "4.0") Double getCapacity();
+
+        @Option(defaultValue = "0.5") Double getPowerDipFraction();
+
+        @Option(defaultValue = "86400.0") Double getCapPeriod();
+
+        /** Longest a workflow may wait to start, unlimited if not given. */
+        @Option(defaultToNull = true) Double getMaxQueueTime();
+
+        @Option(defaultValue = "0") Long getSeed();
+
+        /** Planner used to simulate each DAG: "HEFT" or "trivial". */
+        @Option(defaultValue = "HEFT") String getTemplatePlanner();
+
+        @Option(helpRequest = true) boolean getHelp();
+    }
+
+    public static void main(String[] commandLine)
+            throws ArgumentValidationException, FileNotFoundException {
+
+        // Read arguments
+        Args args = null;
+        try {
+            args = CliFactory.parseArguments(Args.class, commandLine);
+        } catch (HelpRequestedException e) {
+            System.out.println(e);
+            System.exit(0);
+        }
+
+        final VMType vmType = (new VMTypeLoader()).determineVMTypeFromFile(args.getVmFile());
+        final double horizon = args.getHorizon();
+
+        (new File(args.getOutputDir())).mkdirs();
+
+        // Simulate each DAG once to find out what it needs
+        // ============================================================
+        final List<Template> templates = new ArrayList<Template>();
+        double meanPeakPower = 0.0;
+        for (String dagFileName : args.getDagFileNames()) {
+            final Template template = simulateTemplate(dagFileName, vmType,
+                    makePlanner(args.getTemplatePlanner()), args.getOutputDir());
+            templates.add(template);
+            meanPeakPower += template.peakPower / args.getDagFileNames().size();
+        }
+
+        // Power cap
+        // ============================================================
+        final double basePower = args.getCapacity() * meanPeakPower;
+        final PiecewiseConstantFunction cap = periodicDipCap(basePower,
+                args.getPowerDipFraction(), args.getCapPeriod(), horizon);
+        final PowerReservations reservations = new PowerReservations(cap);
+
+        // Arrivals and admission
+        // ============================================================
+        final Random random = new Random(args.getSeed());
+        final double maxQueueTime = args.getMaxQueueTime() == null
+                ? Double.POSITIVE_INFINITY : args.getMaxQueueTime();
+
+        final List<Workflow> workflows = new ArrayList<Workflow>();
+        double time = nextInterarrivalTime(args, random);
+        while (time < horizon) {
+            Workflow workflow = new Workflow();
+            workflow.arrivalTime = time;
+            workflow.template = templates.get(random.nextInt(templates.size()));
+
+            workflow.startTime = reservations.earliestStart(time,
+                    workflow.template.peakPower, workflow.template.makespan,
+                    time + maxQueueTime);
+            if (workflow.startTime != null) {
+                reservations.reserve(workflow.startTime,
+                        workflow.template.makespan, workflow.template.peakPower);
+            }
+
+            workflows.add(workflow);
+            time += nextInterarrivalTime(args, random);
+        }
+
+        // Results
+        // ============================================================
+        writeWorkflows(workflows, new File(args.getOutputDir(), "stream_workflows"));
+        writePowerLog(reservations, new File(args.getOutputDir(), "power.log"));
+        writeStats(args, workflows, reservations, horizon,
+                new File(args.getOutputDir(), "stream_stats"));
+    }
+
+    private static Planner makePlanner(String name) {
+        if (name.equals("HEFT")) {
+            return new HeftPlanner();
+        } else if (name.equals("trivial")) {
+            return new TrivialPlanner();
+        } else {
+            throw new IllegalArgumentException("Unknown planner " + name);
+        }
+    }
+
+    /** Run the DAG with the planner and without a power cap, to get its
+     * power usage when left alone.
+     */
+    private static Template simulateTemplate(String dagFileName, VMType vmType,
+            final Planner planner, String outputDir) {
+        final DAG dag = SweepRunner.parseDag(dagFileName);
+
+        PiecewiseConstantFunction noCap = new PiecewiseConstantFunction(0.0);
+        noCap.addJump(0.0, SweepRunner.UNCONSTRAINED);
+
+        final String dir = outputDir + File.separator + "templates"
+                + File.separator + new File(dagFileName).getName() + File.separator;
+        (new File(dir)).mkdirs();
+
+        final SweepRunner runner = new SweepRunner(planner.getClass().getSimpleName(),
+                new SweepRunner.AlgorithmBuilder() {
+                    @Override
+                    public Algorithm build(DAG dag, VMType vmType,
+                            PiecewiseConstantFunction powerCap, double budget,
+                            double deadline, Cloud cloud, CloudSimWrapper cloudsim) {
+                        return MySimulation.staticAlgorithm(planner, dag,
+                                vmType, budget, deadline, cloud, cloudsim);
+                    }
+                });
+        final SweepRunner.RunStats stats = runner.runTest(dag, dir, vmType,
+                noCap, dagFileName,
+                SweepRunner.UNCONSTRAINED, SweepRunner.UNCONSTRAINED);
+
+        Template template = new Template();
+        template.dagFileName = dagFileName;
+        template.makespan = stats.makespan;
+        template.peakPower = stats.maxPowerUsage;
+        template.energy = stats.totalEnergyConsumed;
+        template.size = dag.getTotalSize();
+        return template;
+    }
+
+    private static double nextInterarrivalTime(Args args, Random random) {
+        if (args.getArrivalProcess().equals("poisson")) {
+            return -Math.log(1.0 - random.nextDouble()) * args.getMeanInterarrivalTime();
+        } else if (args.getArrivalProcess().equals("periodic")) {
+            return args.getMeanInterarrivalTime();
+        } else {
+            throw new IllegalArgumentException(
+                    "Unknown arrival process " + args.getArrivalProcess());
+        }
+    }
+
+    /** Power cap which dips to basePower*powerDipFraction in the middle
+     * third of each period, up to the horizon. After that it stays at the
+     * base power.
+     */
+    private static PiecewiseConstantFunction periodicDipCap(double basePower,
+            double powerDipFraction, double period, double horizon) {
+        PiecewiseConstantFunction cap = new PiecewiseConstantFunction(0.0);
+        for (double t = 0.0; t < horizon; t += period) {
+            cap.addJump(t, basePower);
+            cap.addJump(t + period/3, basePower*powerDipFraction);
+            cap.addJump(t + 2*period/3, basePower);
+        }
+        return cap;
+    }
+
+    private static void writeWorkflows(List<Workflow> workflows, File file) {
+        PrintWriter writer = null;
+        try {
+            writer = new PrintWriter(file.toString(), "UTF-8");
+            writer.println("dagFileName\tarrivalTime\tstartTime\tfinishTime\tpeakPower");
+            for (Workflow w : workflows) {
+                writer.printf(Locale.ROOT, "%s\t%f\t%s\t%s\t%f\n", w.template.dagFileName,
+                        w.arrivalTime,
+                        w.startTime == null ? "None" : w.startTime.toString(),
+                        w.startTime == null ? "None"
+                        : Double.toString(w.startTime + w.template.makespan),
+                        w.template.peakPower);
+            }
+        } catch (FileNotFoundException e) {
+            throw new RuntimeException(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        } finally {
+            writer.close();
+        }
+    }
+
+    /** Write the cap and the reserved power in the same format as the
+     * power.log of a single run, for plot-power.py.
+     */
+    private static void writePowerLog(PowerReservations reservations, File file) {
+        PrintWriter writer = null;
+        try {
+            writer = new PrintWriter(file.toString(), "UTF-8");
+            writer.print(SweepRunner.pythonFormatPFunc("power cap",
+                            reservations.getCap()));
+            writer.print(SweepRunner.pythonFormatPFunc("power reserved",
+                            reservations.getCommitted()));
+        } catch (FileNotFoundException e) {
+            throw new RuntimeException(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static void writeStats(Args args, List<Workflow> workflows,
+            PowerReservations reservations, double horizon, File file) {
+
+        int admitted = 0, rejected = 0, completed = 0;
+        double completedSize = 0.0, usedEnergy = 0.0;
+        final List<Double> queueTimes = new ArrayList<Double>();
+        for (Workflow w : workflows) {
+            if (w.startTime == null) {
+                rejected++;
+                continue;
+            }
+            admitted++;
+            queueTimes.add(w.startTime - w.arrivalTime);
+
+            final double finishTime = w.startTime + w.template.makespan;
+            if (finishTime <= horizon) {
+                completed++;
+                completedSize += w.template.size;
+            }
+
+            // Estimate of the energy used within the horizon, assuming
+            // that it is used evenly over the run.
+            final double runTimeInHorizon =
+                    Math.max(0.0, Math.min(finishTime, horizon) - w.startTime);
+            usedEnergy += w.template.energy * runTimeInHorizon / w.template.makespan;
+        }
+        Collections.sort(queueTimes);
+
+        final double capEnergy = reservations.getCap().integral(0.0, horizon);
+        final double reservedEnergy = reservations.getCommitted().integral(0.0, horizon);
+
+        PrintWriter writer = null;
+        try {
+            writer = new PrintWriter(file.toString(), "UTF-8");
+            writer.printf(Locale.ROOT, "'model' 'reservation'\n");
+            writer.printf(Locale.ROOT, "'templatePlanner' '%s'\n", args.getTemplatePlanner());
+            writer.printf(Locale.ROOT, "'arrivalProcess' '%s'\n", args.getArrivalProcess());
+            writer.printf(Locale.ROOT, "'meanInterarrivalTime' %f\n", args.getMeanInterarrivalTime());
+            writer.printf(Locale.ROOT, "'horizon' %f\n", horizon);
+            writer.printf(Locale.ROOT, "'capacity' %f\n", args.getCapacity());
+            writer.printf(Locale.ROOT, "'powerDipFraction' %f\n", args.getPowerDipFraction());
+            writer.printf(Locale.ROOT, "'arrived' %d\n", workflows.size());
+            writer.printf(Locale.ROOT, "'admitted' %d\n", admitted);
+            writer.printf(Locale.ROOT, "'rejected' %d\n", rejected);
+            writer.printf(Locale.ROOT, "'completed' %d\n", completed);
+            writer.printf(Locale.ROOT, "'throughputPerHour' %f\n", completed / horizon * 3600);
+            writer.printf(Locale.ROOT, "'throughputMInstructionsPerSecond' %f\n", completedSize / horizon);
+            writer.printf(Locale.ROOT, "'queueTimeMean' %f\n", mean(queueTimes));
+            writer.printf(Locale.ROOT, "'queueTimeP50' %f\n", percentile(queueTimes, 50));
+            writer.printf(Locale.ROOT, "'queueTimeP90' %f\n", percentile(queueTimes, 90));
+            writer.printf(Locale.ROOT, "'queueTimeP99' %f\n", percentile(queueTimes, 99));
+            writer.printf(Locale.ROOT, "'queueTimeMax' %f\n", percentile(queueTimes, 100));
+            writer.printf(Locale.ROOT, "'capReservedFraction' %f\n", reservedEnergy / capEnergy);
+            writer.printf(Locale.ROOT, "'estimatedCapUtilisation' %f\n", usedEnergy / capEnergy);
+        } catch (FileNotFoundException e) {
+            throw new RuntimeException(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        } finally {
+            writer.close();
+        }
+
+        System.out.printf("%d workflows arrived, %d admitted, %d rejected, %d completed\n",
+                workflows.size(), admitted, rejected, completed);
+        System.out.printf("queue time p50 %f, p90 %f, p99 %f\n",
+                percentile(queueTimes, 50), percentile(queueTimes, 90),
+                percentile(queueTimes, 99));
+        System.out.printf("estimated cap utilisation: %f\n", usedEnergy / capEnergy);
+    }
+
+    private static double mean(List<Double> values) {
+        double total = 0.0;
+        for (double v : values) {
+            total += v;
+        }
+        return values.isEmpty() ? Double.NaN : total / values.size();
+    }
+
+    /** Nearest rank percentile of a sorted list. */
+    static double percentile(List<Double> sorted, double p) {
+        if (sorted.isEmpty()) {
+            return Double.NaN;
+        }
+        final int rank = (int) Math.ceil(p / 100.0 * sorted.size());
+        return sorted.get(Math.max(rank, 1) - 1);
+    }
+}
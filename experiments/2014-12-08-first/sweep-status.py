@@ -0,0 +1,212 @@
+#!/usr/bin/env python3
+
+import sys
+import argparse
+import os
+import os.path
+import time
+import itertools as it
+
+from ast import literal_eval
+
+
+def group_by(iterator, key):
+    keyf = lambda d: d[key]
+    return it.groupby(sorted(iterator, key=keyf), key=keyf)
+
+
+def main():
+    """Report progress of a sweep from the run log written by the
+    simulations (their --runLog argument).
+
+    The status is written in the Prometheus text format, so it is readable
+    as is and can also be picked up by the node_exporter textfile
+    collector. The status file is rewritten every --interval seconds
+    until killed, or once with --once.
+
+    """
+
+    parser = argparse.ArgumentParser(description=main.__doc__,
+                                     formatter_class=argparse.RawDescriptionHelpFormatter)
+    parser.add_argument('run_log')
+    parser.add_argument('--expected', type=int, default=0,
+                        help="Total number of runs in the sweep")
+    parser.add_argument('--output', help="Status file, default stdout")
+    parser.add_argument('--interval', type=float, default=10.0)
+    parser.add_argument('--window', type=float, default=300.0,
+                        help="Window in seconds for the recent throughput")
+    parser.add_argument('--since', type=float,
+                        help="When the sweep was started or resumed, in seconds"
+                        " since the epoch, default now")
+    parser.add_argument('--once', action='store_true')
+    args = parser.parse_args()
+
+    sweep_start = args.since if args.since is not None else time.time()
+
+    while True:
+        events = parse_run_log(args.run_log)
+        status = format_status(sweep_status(events, args.expected,
+                                            sweep_start, time.time(),
+                                            args.window))
+        write_status(status, args.output)
+
+        if args.once:
+            break
+        time.sleep(args.interval)
+
+    return 0
+
+
+def parse_run_log(filename):
+    """Read the list of event dicts from the run log, ignoring a partially
+    written final line.
+    """
+    if not os.path.exists(filename):
+        return []
+
+    events = []
+    with open(filename, 'r') as f:
+        for line in f.readlines():
+            try:
+                events.append(literal_eval(line))
+            except (SyntaxError, ValueError):
+                pass
+    return events
+
+
+class Status(object):
+    pass
+
+
+def sweep_status(events, expected, sweep_start, now, window):
+
+    starts = [e for e in events if e['event'] == 'start']
+    dones = [e for e in events if e['event'] == 'done']
+
+    s = Status()
+    s.now = now
+
+    # A resumed sweep keeps the log of the earlier attempts, so measure the
+    # throughput from when it was resumed, using only the runs which
+    # finished since then.
+    s.start = sweep_start
+    s.elapsed = max(now - s.start, 1e-9)
+    new_dones = [e for e in dones if e['time'] >= s.start]
+
+    # A resumed sweep starts again the runs which were killed, so count
+    # each run once.
+    s.expected = max(expected, len(set(e['dir'] for e in starts)))
+    done_dirs = set(e['dir'] for e in dones)
+    s.completed = len(done_dirs)
+
+    # Runs which started but haven't finished, with their ages since the
+    # latest start
+    latest_starts = dict((e['dir'], e) for e in starts)
+    s.running = [(e, now - e['time']) for e in latest_starts.values()
+                 if e['dir'] not in done_dirs]
+    s.queue_depth = s.expected - s.completed - len(s.running)
+
+    s.rate = len(new_dones) / s.elapsed
+    s.recent_rate = len([e for e in new_dones if e['time'] > now - window]) \
+                    / min(window, s.elapsed)
+    s.window = window
+
+    remaining = s.expected - s.completed
+    if remaining <= 0:
+        s.eta = 0.0
+    else:
+        s.eta = remaining / s.rate if s.rate > 0 else float('inf')
+
+    s.last_completion_age = now - max([e['time'] for e in dones]) \
+                            if dones else s.elapsed
+
+    s.algorithms = []
+    for algorithm, algorithm_dones in group_by(dones, 'algorithmName'):
+        algorithm_dones = list(algorithm_dones)
+        n = len(algorithm_dones)
+        s.algorithms.append(
+            (algorithm, n,
+             sum(e['wallTime'] for e in algorithm_dones) / n,
+             sum(e['planningTime'] for e in algorithm_dones) / n,
+             sum(e['simulationTime'] for e in algorithm_dones) / n))
+
+    s.heap_used_last = dones[-1]['heapUsed'] if dones else 0
+    s.heap_used_max = max([e['heapUsed'] for e in dones] + [0])
+    s.heap_max = max([e['heapMax'] for e in dones] + [0])
+
+    return s
+
+
+def format_status(s):
+    lines = []
+
+    def metric(name, help_text, values):
+        lines.append("# HELP {} {}".format(name, help_text))
+        lines.append("# TYPE {} gauge".format(name))
+        for labels, value in values:
+            label_str = ",".join('{}="{}"'.format(k, v) for k, v in labels)
+            lines.append("{}{} {}".format(name,
+                                          "{" + label_str + "}" if labels else "",
+                                          value))
+
+    metric("sweep_runs_expected", "Total number of runs in the sweep",
+           [([], s.expected)])
+    metric("sweep_runs_completed", "Number of finished runs",
+           [([], s.completed)])
+    metric("sweep_runs_running", "Number of runs in progress",
+           [([], len(s.running))])
+    metric("sweep_queue_depth", "Number of runs not yet started",
+           [([], s.queue_depth)])
+    metric("sweep_runs_per_second", "Mean throughput since the monitor started",
+           [([], s.rate)])
+    metric("sweep_runs_per_second_recent",
+           "Throughput over the last {} seconds".format(s.window),
+           [([], s.recent_rate)])
+    metric("sweep_eta_seconds", "Estimated time until the sweep finishes",
+           [([], s.eta)])
+    metric("sweep_seconds_since_last_completion",
+           "Time since a run last finished (large if something is stuck)",
+           [([], s.last_completion_age)])
+
+    metric("sweep_run_wall_seconds_mean", "Mean wall time per run",
+           [([("algorithm", a)], wall) for a, _, wall, _, _ in s.algorithms])
+    metric("sweep_run_planning_seconds_mean", "Mean planning wall time per run",
+           [([("algorithm", a)], p) for a, _, _, p, _ in s.algorithms])
+    metric("sweep_run_simulation_seconds_mean",
+           "Mean simulation wall time per run",
+           [([("algorithm", a)], sim) for a, _, _, _, sim in s.algorithms])
+    metric("sweep_runs_completed_by_algorithm", "Number of finished runs",
+           [([("algorithm", a)], n) for a, n, _, _, _ in s.algorithms])
+
+    metric("sweep_heap_used_bytes_last", "Heap used at the end of the last run",
+           [([], s.heap_used_last)])
+    metric("sweep_heap_used_bytes_max", "Largest heap used at the end of a run",
+           [([], s.heap_used_max)])
+    metric("sweep_heap_max_bytes", "Maximum heap size of the JVMs",
+           [([], s.heap_max)])
+
+    metric("sweep_run_age_seconds", "Time since each running run started",
+           [([("algorithm", e['algorithmName']),
+              ("application", e['application']),
+              ("size", e['size']),
+              ("powerDipFraction", e['powerDipFraction']),
+              ("dir", e['dir'])], age)
+            for e, age in sorted(s.running, key=lambda p: -p[1])])
+
+    return "\n".join(lines) + "\n"
+
+
+def write_status(status, filename):
+    if filename is None:
+        sys.stdout.write(status)
+        return
+
+    # Write then rename so that readers never see a partial file
+    tmp = filename + ".tmp"
+    with open(tmp, 'w') as f:
+        f.write(status)
+    os.replace(tmp, filename)
+
+
+if __name__ == "__main__":
+    sys.exit(main())
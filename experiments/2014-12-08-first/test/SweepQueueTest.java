@@ -0,0 +1,208 @@
+import java.io.File;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+
+public class SweepQueueTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static final String ALGORITHM = "HEFT-like";
+
+    private static SweepQueue.Cell makeCell(String id) {
+        SweepQueue.Cell cell = new SweepQueue.Cell();
+        cell.id = id;
+        cell.algorithmName = ALGORITHM;
+        cell.dagFileName = "GENOME.n.50.0.dag";
+        cell.application = "GENOME";
+        cell.size = 50;
+        cell.powerDipFraction = 0.5;
+        cell.outputDir = "out" + File.separator + id + File.separator;
+        return cell;
+    }
+
+    @Test
+    public void completedCellIsDone() {
+        SweepQueue queue = new SweepQueue(tmp.getRoot());
+        queue.enqueue(makeCell("a"));
+
+        SweepQueue.Cell cell = queue.claim(ALGORITHM, "w1");
+        assertNotNull(cell);
+        assertEquals("a", cell.id);
+        assertEquals(1, queue.running().size());
+        assertNull(queue.claim(ALGORITHM, "w2"));
+
+        queue.complete(cell);
+        assertEquals(0, queue.running().size());
+        assertEquals(1, queue.done().size());
+    }
+
+    @Test
+    public void failedCellIsRetriedWithItsError() {
+        SweepQueue queue = new SweepQueue(tmp.getRoot());
+        queue.enqueue(makeCell("a"));
+
+        queue.fail(queue.claim(ALGORITHM, "w1"), new RuntimeException("boom"));
+        List<SweepQueue.Cell> failed = queue.failed();
+        assertEquals(1, failed.size());
+        assertTrue(failed.get(0).error.contains("boom"));
+        assertEquals(0, failed.get(0).attempts);
+
+        queue.retry(failed.get(0));
+        assertEquals(0, queue.failed().size());
+        assertEquals(1, queue.claim(ALGORITHM, "w1").attempts);
+    }
+
+    @Test
+    public void failAfterClaimExpiredIsIgnored() {
+        SweepQueue queue = new SweepQueue(tmp.getRoot());
+        queue.enqueue(makeCell("a"));
+
+        SweepQueue.Cell cell = queue.claim(ALGORITHM, "w1");
+        cell.file.setLastModified(System.currentTimeMillis() - 60 * 1000);
+        queue.expireClaims(30.0);
+
+        queue.fail(cell, new RuntimeException("boom"));
+        assertEquals(0, queue.running().size());
+        List<SweepQueue.Cell> failed = queue.failed();
+        assertEquals(1, failed.size());
+        assertTrue(failed.get(0).error.contains("expired"));
+    }
+
+    @Test
+    public void staleClaimExpires() {
+        SweepQueue queue = new SweepQueue(tmp.getRoot());
+        queue.enqueue(makeCell("a"));
+        queue.enqueue(makeCell("b"));
+
+        SweepQueue.Cell dead = queue.claim(ALGORITHM, "dead");
+        SweepQueue.Cell live = queue.claim(ALGORITHM, "live");
+        dead.file.setLastModified(System.currentTimeMillis() - 60 * 1000);
+
+        List<SweepQueue.Cell> expired = queue.expireClaims(30.0);
+        assertEquals(1, expired.size());
+        assertEquals(dead.id, expired.get(0).id);
+        assertTrue(expired.get(0).error.contains("dead"));
+
+        assertEquals(1, queue.failed().size());
+        assertEquals(1, queue.running().size());
+
+        // The dead worker's late finish is ignored, the live one's isn't
+        queue.complete(dead);
+        queue.complete(live);
+        assertEquals(1, queue.done().size());
+        assertEquals(live.id, queue.done().get(0).id);
+    }
+
+    @Test
+    public void claimingRenewsLongWaitingCell() {
+        SweepQueue queue = new SweepQueue(tmp.getRoot());
+        queue.enqueue(makeCell("a"));
+        for (File f : new File(tmp.getRoot(), "pending/" + ALGORITHM).listFiles()) {
+            f.setLastModified(System.currentTimeMillis() - 60 * 1000);
+        }
+
+        queue.claim(ALGORITHM, "w1");
+        assertEquals(0, queue.expireClaims(30.0).size());
+    }
+
+    /** A coordinator resuming a sweep reads the states in the order that
+     * workers move cells through them, so it must see every cell. */
+    @Test(timeout = 60000)
+    public void failingCellsAreAlwaysInTheQueue() throws Exception {
+        final SweepQueue queue = new SweepQueue(tmp.getRoot());
+        final int nCells = 300;
+        for (int i = 0; i < nCells; i++) {
+            queue.enqueue(makeCell(String.format("c%03d", i)));
+        }
+
+        final Throwable[] workerError = new Throwable[1];
+        Thread worker = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    SweepQueue.Cell cell;
+                    while ((cell = queue.claim(ALGORITHM, "w1")) != null) {
+                        queue.fail(cell, new RuntimeException("boom"));
+                    }
+                } catch (Throwable e) {
+                    workerError[0] = e;
+                }
+            }
+        };
+        worker.start();
+
+        while (worker.isAlive()) {
+            final Set<String> seen = new HashSet<String>();
+            for (SweepQueue.Cell cell : queue.pending()) {
+                seen.add(cell.id);
+            }
+            for (SweepQueue.Cell cell : queue.running()) {
+                seen.add(cell.id);
+            }
+            for (SweepQueue.Cell cell : queue.failed()) {
+                seen.add(cell.id);
+            }
+            assertEquals(nCells, seen.size());
+        }
+        worker.join();
+
+        assertNull(workerError[0]);
+        assertEquals(nCells, queue.failed().size());
+    }
+
+    /** The coordinator reads the queue while workers move cells, cells
+     * which move between listing and reading must not crash it. */
+    @Test(timeout = 60000)
+    public void readWhileWorkersMoveCells() throws Exception {
+        // The race is rare, so try several times
+        for (int i = 0; i < 10; i++) {
+            readWhileWorkerMovesCells(new SweepQueue(tmp.newFolder("queue" + i)));
+        }
+    }
+
+    private static void readWhileWorkerMovesCells(final SweepQueue queue)
+            throws Exception {
+        final int nCells = 300;
+        for (int i = 0; i < nCells; i++) {
+            queue.enqueue(makeCell(String.format("c%03d", i)));
+        }
+
+        final Throwable[] workerError = new Throwable[1];
+        Thread worker = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    SweepQueue.Cell cell;
+                    while ((cell = queue.claim(ALGORITHM, "w1")) != null) {
+                        queue.complete(cell);
+                    }
+                } catch (Throwable e) {
+                    workerError[0] = e;
+                }
+            }
+        };
+        worker.start();
+
+        while (worker.isAlive()) {
+            queue.pending();
+            queue.running();
+            queue.done();
+        }
+        worker.join();
+
+        assertNull(workerError[0]);
+        assertEquals(nCells, queue.done().size());
+    }
+}
@@ -3,6 +3,19 @@
 set -o errexit
 set -o nounset
 
+# Deadlines and budgets to sweep over (as multiples of the optimal makespan
+# and of the minimum cost) can be given in the environment, e.g.
+#
+#     CONSTRAINT_ARGS="--deadlineFactors 1.5 2 4 --budgetFactors 1 2" ./fcfs-run.sh
+#
+# by default runs are unconstrained.
+#
+# A sweep which was killed part way through can be carried on with
+#
+#     RESUME=1 ./fcfs-run.sh
+#
+# which keeps the output so far and skips the runs which finished.
+
 main="$(readlink -f $(pwd))"
 out_dir_root="${main}/output"
 project_root="../.."
@@ -10,9 +23,12 @@ project_root="../.."
 # Create dirs
 mkdir -p $out_dir_root bin
 
-# clean
-touch "${out_dir_root}/temp" bin/temp
-rm -r ${out_dir_root}/*
+# clean, unless carrying on from before
+if [ -z "${RESUME:-}" ]; then
+    touch "${out_dir_root}/temp"
+    rm -r ${out_dir_root}/*
+fi
+touch bin/temp
 rm -r bin/*
 
 # (re)compile cws
@@ -20,8 +36,12 @@ cd ../../cloudworkflowsimulator/
 ant clean dist
 cd "$main"
 
-# compile
-javac -cp "${project_root}/lib/*" -d bin/ src/*.java
+# compile, the sweep itself is shared with the HEFT experiment
+shared_src="../2014-12-08-first/src"
+javac -cp "${project_root}/lib/*" -d bin/ src/*.java \
+      "${shared_src}/SweepRunner.java" \
+      "${shared_src}/SweepQueue.java" \
+      "${shared_src}/PowerAnalytics.java"
 
 worker()
 {
@@ -56,12 +76,21 @@ worker()
                  --outputDirBase "$out_dir_base" \
                  --vmFile "input/default.vm.yaml" \
                  --application "$application" \
-                 --size "$size"
+                 --size "$size" \
+                 --runLog "${out_dir_root}/runs.log" \
+                 ${RESUME:+--resume} \
+                 ${CONSTRAINT_ARGS:-}
 
-            for out_dir in $(ls -d ${out_dir_base}/*); do
+            # (runs with deadlines or budgets are in subdirs of the
+            # power cap dirs)
+            for out_dir in $(find ${out_dir_base} -name out.log -printf '%h\n'); do
 
                 outfile="${out_dir}/out.log"
-                powerfile="${out_dir}/power.log"
+
+                # (already checked before the sweep was resumed)
+                if [ "${outfile}.validation" -nt "${outfile}" ]; then
+                    continue
+                fi
 
                 # parse
                 python -m log_parser.parse_experiment_log "${outfile}" "${outfile}.parsed"
@@ -70,12 +99,7 @@ worker()
                 python -m validation.experiment_validator "${outfile}.parsed" 2>&1 \
                     | tee "${outfile}.validation"
 
-                # plot gantt charts
-                ruby -C "$script_dir/visualisation/" plot_gantt.rb \
-                     results ${outfile}.parsed ${outfile}.results --crop-from 0.0
-
-                # plot power usage
-                ./plot-power.py ${powerfile} ${powerfile}.png
+                # Plotting is done on demand by ../2014-12-08-first/render-runs.sh
 
             done
         done
@@ -85,11 +109,49 @@ worker()
 export -f worker
 
 
+# Keep output/status up to date with the progress of the sweep until we
+# exit. Arguments are the number of variations, sizes and applications.
+# Number of values given for an option (e.g. --deadlineFactors) in
+# CONSTRAINT_ARGS, 1 if it isn't there since then there is one
+# unconstrained run.
+count_factors()
+{
+    n=0
+    in_option=""
+    for word in ${CONSTRAINT_ARGS:-}; do
+        case "$word" in
+            "$1") in_option=1 ;;
+            --*) in_option="" ;;
+            *) if [ -n "$in_option" ]; then n=$(( n + 1 )); fi ;;
+        esac
+    done
+    echo $(( n > 0 ? n : 1 ))
+}
+
+start_status_monitor()
+{
+    n_power_caps=3 # the number of powerConstraints in the java code
+    n_constraints=$(( $(count_factors --deadlineFactors) * $(count_factors --budgetFactors) ))
+    expected=$(( $1 * $2 * $3 * n_power_caps * n_constraints ))
+
+    # Throughput is measured from now, so that after a resume it doesn't
+    # include the time when nothing was running
+    sweep_start=$(date +%s)
+
+    status_args="${out_dir_root}/runs.log --expected $expected --output ${out_dir_root}/status --since $sweep_start"
+
+    ../2014-12-08-first/sweep-status.py $status_args &
+    status_pid=$!
+    trap "kill $status_pid; ../2014-12-08-first/sweep-status.py $status_args --once" EXIT
+}
+
+
 if [ $# -gt 0 ]; then
     applications="GENOME LIGO SIPHT MONTAGE CYBERSHAKE"
     variations="0"
     sizes="50 900"
 
+    start_status_monitor 1 $(echo $sizes | wc -w) $(echo $applications | wc -w)
     worker 0 "$sizes" "$applications"
 else
     applications="GENOME LIGO SIPHT MONTAGE CYBERSHAKE"
@@ -101,6 +163,9 @@ else
     parallel --version 2&>1 > /dev/null \
         || echo "you have moreutils parallel, install GNU parallel instead"
 
+    start_status_monitor $(echo $variations | wc -w) \
+        $(echo $sizes | wc -w) $(echo $applications | wc -w)
+
     # run in parallel
     SHELL="bash" parallel -n 1 --no-notice "worker {} \"$sizes\" \"$applications\"" ::: $variations
 fi